@@ -0,0 +1,37 @@
+package crocodile.bench;
+
+import crocodile.feed.ICalWriter;
+import crocodile.feed.RenderConfig;
+import crocodile.model.Event;
+import crocodile.model.StoredCalendar;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CalendarBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int events;
+
+    private StoredCalendar calendar;
+    private List<Event> eventList;
+
+    @Setup
+    public void setup() {
+        this.calendar = new StoredCalendar("bench", "Europe/Berlin", "open", "never", "never", null, null);
+        this.eventList = Events.create(this.events);
+    }
+
+    @Benchmark
+    public String toICal() {
+        return this.calendar.toICal(this.eventList).toString();
+    }
+
+    @Benchmark
+    public String renderNative() {
+        return ICalWriter.render(this.calendar, new RenderConfig(RenderConfig.Engine.NATIVE, false), this.eventList);
+    }
+}
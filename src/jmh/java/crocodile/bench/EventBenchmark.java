@@ -0,0 +1,34 @@
+package crocodile.bench;
+
+import crocodile.model.Event;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventBenchmark {
+
+    @Param({"timed", "allDay"})
+    public String times;
+
+    @Param({"true", "false"})
+    public boolean optional;
+
+    private TimeZone timezone;
+    private Event event;
+
+    @Setup
+    public void setup() {
+        this.timezone = TimeZoneRegistryFactory.getInstance().createRegistry().getTimeZone("Europe/Berlin");
+        this.event = Events.create(UUID.randomUUID(), "timed".equals(this.times), this.optional);
+    }
+
+    @Benchmark
+    public String toICal() {
+        return this.event.toICal(this.timezone).toString();
+    }
+}
@@ -0,0 +1,63 @@
+package crocodile.bench;
+
+import crocodile.model.Event;
+import crocodile.model.EventJson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventJsonBenchmark {
+
+    private static final String TIMED = """
+            {"title": "Weekly planning meeting", "description": "Agenda:\\nReview last week, plan the next one.", "location": "Room 4.12, Main Building", "url": "https://example.com/events/42", "start": "2024-03-01T09:00:00Z", "end": "2024-03-01T10:30:00Z"}""";
+    private static final String ALL_DAY = """
+            {"title": "Conference", "startDay": "2024-03-01", "endDay": "2024-03-03"}""";
+
+    private UUID uid;
+    private String batch;
+
+    @Setup
+    public void setup() {
+        this.uid = UUID.randomUUID();
+        this.batch = Events.create(100).stream().map(event -> EventJson.toJson(event).toString()).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    // The tree variants are the baseline, they parse the whole body into a JsonElement first
+    @Benchmark
+    public Event timedTree() throws ParseException {
+        return TreeEventJson.fromJson(this.uid, TIMED);
+    }
+
+    @Benchmark
+    public Event timedStreaming() throws IOException, ParseException {
+        return EventJson.readSingle(this.uid, new StringReader(TIMED), Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public Event allDayTree() throws ParseException {
+        return TreeEventJson.fromJson(this.uid, ALL_DAY);
+    }
+
+    @Benchmark
+    public Event allDayStreaming() throws IOException, ParseException {
+        return EventJson.readSingle(this.uid, new StringReader(ALL_DAY), Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<Event> batchTree() throws ParseException {
+        return TreeEventJson.fromJsonList(this.uid, this.batch);
+    }
+
+    @Benchmark
+    public List<Event> batchStreaming() throws IOException, ParseException {
+        return EventJson.read(this.uid, new StringReader(this.batch), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+}
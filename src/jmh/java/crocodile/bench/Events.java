@@ -0,0 +1,36 @@
+package crocodile.bench;
+
+import crocodile.model.Event;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+class Events {
+
+    private static final Instant BASE = Instant.parse("2024-03-01T09:00:00Z");
+
+    static Event create(UUID uid, boolean timed, boolean optional) {
+        Event.Times times = timed
+                ? new Event.Timed(BASE, BASE.plusSeconds(5400))
+                : new Event.AllDay(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 3));
+        if (optional) {
+            return new Event(uid, "Weekly planning meeting", BASE.minusSeconds(86400), "Agenda:\nReview last week, plan the next one; questions welcome.", "Room 4.12, Main Building", "https://example.com/events/" + uid, times);
+        } else {
+            return new Event(uid, "Weekly planning meeting", BASE.minusSeconds(86400), null, null, null, times);
+        }
+    }
+
+    // A deterministic mix of timed and all-day events with and without optional fields
+    static List<Event> create(int amount) {
+        Random random = new Random(amount);
+        List<Event> events = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            events.add(create(new UUID(random.nextLong(), random.nextLong()), random.nextInt(4) != 0, random.nextBoolean()));
+        }
+        return events;
+    }
+}
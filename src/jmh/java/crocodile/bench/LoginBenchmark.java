@@ -0,0 +1,60 @@
+package crocodile.bench;
+
+import crocodile.login.CrocodileCallbackHandler;
+import crocodile.login.LoginCache;
+import crocodile.login.LoginCacheConfig;
+import crocodile.login.TokenLoginModule;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.StoredCalendar;
+import crocodile.route.base.CalendarRoute;
+import org.openjdk.jmh.annotations.*;
+
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoginBenchmark {
+
+    private static final String TOKEN = "0123456789abcdef";
+
+    private String authHeader;
+    private StoredCalendar calendar;
+    private CrocodileCallbackHandler handler;
+    private LoginCache cache;
+
+    @Setup
+    public void setup() {
+        this.authHeader = "Basic " + Base64.getEncoder().encodeToString("calendar-user:correct horse battery staple".getBytes(StandardCharsets.UTF_8));
+        AppConfigurationEntry entry = new AppConfigurationEntry(TokenLoginModule.class.getName(), AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, Map.of("token", TOKEN));
+        Configuration.setConfiguration(new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                return "token".equals(name) ? new AppConfigurationEntry[]{ entry } : null;
+            }
+        });
+        this.calendar = new StoredCalendar("bench", "UTC", "token", "never", "never", null, null);
+        this.handler = new CrocodileCallbackHandler(null, null, TOKEN);
+        this.cache = new LoginCache(new LoginCacheConfig(1024, Duration.ofMinutes(10)));
+    }
+
+    @Benchmark
+    public CrocodileCallbackHandler decodeBasicAuth() {
+        return CalendarRoute.getLoginData(this.authHeader, null);
+    }
+
+    @Benchmark
+    public boolean tokenLogin() {
+        return this.calendar.login(ConfiguredCalendar.Action.READ, this.handler);
+    }
+
+    @Benchmark
+    public boolean cachedTokenLogin() {
+        return this.cache.login(this.calendar, ConfiguredCalendar.Action.READ, this.handler);
+    }
+}
@@ -0,0 +1,73 @@
+package crocodile.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of latencies in microseconds with a relative error of less than 2%
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKETS = 2 * HALF + (64 - SUB_BUCKET_BITS) * HALF;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder errors;
+
+    LatencyHistogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.errors = new LongAdder();
+    }
+
+    void record(long nanos, boolean success) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        this.buckets.incrementAndGet(index(micros));
+        this.count.increment();
+        if (!success) this.errors.increment();
+    }
+
+    long count() {
+        return this.count.sum();
+    }
+
+    long errors() {
+        return this.errors.sum();
+    }
+
+    // Returns the upper bound of the bucket that contains the given quantile in microseconds
+    long quantile(double quantile) {
+        long total = this.count.sum();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < this.buckets.length(); i++) {
+            seen += this.buckets.get(i);
+            if (seen >= target) return upperBound(i);
+        }
+        return upperBound(this.buckets.length() - 1);
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.addAndGet(i, other.buckets.get(i));
+        }
+        this.count.add(other.count.sum());
+        this.errors.add(other.errors.sum());
+    }
+
+    // Values below 2 * HALF get their own bucket, larger values are split into HALF buckets per power of two
+    private static int index(long value) {
+        if (value < 2 * HALF) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return 2 * HALF + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * HALF) return index;
+        int shift = (index - 2 * HALF) / HALF + 1;
+        long top = (index - 2 * HALF) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
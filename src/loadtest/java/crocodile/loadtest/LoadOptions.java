@@ -0,0 +1,26 @@
+package crocodile.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+public record LoadOptions(
+        int port,
+        String dbEngine,
+        String dbHost,
+        int dbPort,
+        String dbUser,
+        String dbPassword,
+        int groupCommitWindow,
+        boolean cache,
+        boolean conditional,
+        int storedCalendars,
+        int virtualCalendars,
+        int events,
+        int pollers,
+        int writers,
+        double rate,
+        Duration warmup,
+        Duration duration,
+        String serverArgs,
+        Path output
+) {}
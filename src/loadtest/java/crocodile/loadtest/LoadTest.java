@@ -0,0 +1,157 @@
+package crocodile.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Boots Crocodile against a local PostgreSQL database or an embedded one, drives simulated clients against it and reports latencies.
+// Run with ./gradlew loadTest --args='--pollers 200 --rate 500'
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        OptionParser options = new OptionParser(false);
+        OptionSpec<Void> specHelp = options.accepts("help", "Show help.").forHelp();
+        OptionSpec<Integer> specPort = options.accepts("port", "The port the server runs on.").withRequiredArg().ofType(Integer.class).defaultsTo(8642);
+        OptionSpec<String> specDbEngine = options.accepts("db-engine", "The database engine, postgres or embedded.").withRequiredArg().defaultsTo("postgres");
+        OptionSpec<String> specDbHost = options.accepts("db-host", "The database host.").withRequiredArg().defaultsTo("localhost");
+        OptionSpec<Integer> specDbPort = options.accepts("db-port", "The database port.").withRequiredArg().ofType(Integer.class).defaultsTo(5432);
+        OptionSpec<String> specDbUser = options.accepts("db-user", "The database user.").withRequiredArg().defaultsTo("crocodile");
+        OptionSpec<String> specDbPassword = options.accepts("db-password", "The database password.").withRequiredArg().defaultsTo("crocodile");
+        OptionSpec<Integer> specGroupCommit = options.accepts("group-commit", "Enables group commit with the given window in milliseconds.").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Void> specNoCache = options.accepts("no-cache", "Disables the feed cache, so every read goes to the database.");
+        OptionSpec<Void> specUnconditional = options.accepts("unconditional", "Pollers don't send If-None-Match, so every poll returns the whole calendar.");
+        OptionSpec<Integer> specCalendars = options.accepts("calendars", "The amount of stored calendars.").withRequiredArg().ofType(Integer.class).defaultsTo(20);
+        OptionSpec<Integer> specVirtual = options.accepts("virtual", "The amount of virtual calendars.").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+        OptionSpec<Integer> specEvents = options.accepts("events", "The amount of events seeded into every stored calendar.").withRequiredArg().ofType(Integer.class).defaultsTo(500);
+        OptionSpec<Integer> specPollers = options.accepts("pollers", "The amount of simulated clients that poll calendars.").withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        OptionSpec<Integer> specWriters = options.accepts("writers", "The amount of simulated clients that modify calendars.").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+        OptionSpec<Double> specRate = options.accepts("rate", "The total amount of requests per second. 0 sends as fast as possible.").withRequiredArg().ofType(Double.class).defaultsTo(200d);
+        OptionSpec<Integer> specWarmup = options.accepts("warmup", "The amount of seconds before latencies are recorded.").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Integer> specDuration = options.accepts("duration", "The amount of seconds latencies are recorded.").withRequiredArg().ofType(Integer.class).defaultsTo(60);
+        OptionSpec<String> specServerArgs = options.accepts("server-args", "Additional JVM arguments for the server.").withRequiredArg().defaultsTo("-Xmx512m");
+        OptionSpec<Path> specOutput = options.accepts("output", "A file to which the results are appended as JSON line.").withRequiredArg().withValuesConvertedBy(new PathConverter()).defaultsTo(Path.of("build", "loadtest", "results.jsonl"));
+        OptionSet set = options.parse(args);
+
+        if (set.has(specHelp)) {
+            options.printHelpOn(System.out);
+            return;
+        }
+
+        LoadOptions config = new LoadOptions(
+                set.valueOf(specPort), set.valueOf(specDbEngine), set.valueOf(specDbHost), set.valueOf(specDbPort), set.valueOf(specDbUser), set.valueOf(specDbPassword),
+                set.has(specGroupCommit) ? set.valueOf(specGroupCommit) : -1,
+                !set.has(specNoCache), !set.has(specUnconditional),
+                set.valueOf(specCalendars), set.valueOf(specVirtual), set.valueOf(specEvents),
+                set.valueOf(specPollers), set.valueOf(specWriters), set.valueOf(specRate),
+                Duration.ofSeconds(set.valueOf(specWarmup)), Duration.ofSeconds(set.valueOf(specDuration)),
+                set.valueOf(specServerArgs), set.valueOf(specOutput).toAbsolutePath().normalize()
+        );
+        if (!config.dbEngine().equals("postgres") && !config.dbEngine().equals("embedded")) throw new IllegalStateException("Unknown database engine: " + config.dbEngine());
+        if (config.storedCalendars() < 1) throw new IllegalStateException("At least one stored calendar is needed.");
+        if (config.pollers() + config.writers() < 1) throw new IllegalStateException("At least one poller or writer is needed.");
+
+        Path workDir = config.output().getParent();
+        Files.createDirectories(workDir);
+        try (HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+             ServerProcess server = ServerProcess.start(config, workDir, client)) {
+            Workload workload = new Workload(config, client, server.base());
+            System.out.printf(Locale.ROOT, "Seeding %d calendars with %d events each.%n", config.storedCalendars(), config.events());
+            workload.seed();
+
+            AtomicLong maxHeap = new AtomicLong(0);
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("heap-sampler").daemon().factory());
+            System.out.printf(Locale.ROOT, "Running %d pollers and %d writers at %s requests per second.%n", config.pollers(), config.writers(), config.rate() > 0 ? config.rate() : "unlimited");
+            List<Thread> threads = workload.start();
+            Thread.sleep(config.warmup().toMillis());
+            OptionalLong heapBefore = server.heapUsed();
+            workload.record(true);
+            sampler.scheduleAtFixedRate(() -> server.heapUsed().ifPresent(heap -> maxHeap.accumulateAndGet(heap, Math::max)), 0, 1, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            Thread.sleep(config.duration().toMillis());
+            workload.record(false);
+            double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+            sampler.shutdownNow();
+            workload.stop(threads);
+            OptionalLong heapAfter = server.heapUsed();
+
+            report(config, workload.histograms(), seconds, heapBefore, heapAfter, maxHeap.get());
+        }
+    }
+
+    private static void report(LoadOptions config, Map<String, LatencyHistogram> histograms, double seconds, OptionalLong heapBefore, OptionalLong heapAfter, long maxHeap) throws IOException {
+        LatencyHistogram total = new LatencyHistogram();
+        JsonObject json = new JsonObject();
+        json.addProperty("time", Instant.now().toString());
+        json.addProperty("dbEngine", config.dbEngine());
+        json.addProperty("cache", config.cache());
+        json.addProperty("conditional", config.conditional());
+        json.addProperty("calendars", config.storedCalendars());
+        json.addProperty("virtual", config.virtualCalendars());
+        json.addProperty("events", config.events());
+        json.addProperty("pollers", config.pollers());
+        json.addProperty("writers", config.writers());
+        json.addProperty("rate", config.rate());
+        if (config.groupCommitWindow() >= 0) json.addProperty("groupCommitWindow", config.groupCommitWindow());
+        json.addProperty("seconds", seconds);
+        System.out.printf(Locale.ROOT, "%n%-8s %10s %10s %8s %10s %10s %10s %10s%n", "", "requests", "req/s", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            total.add(entry.getValue());
+            print(entry.getKey(), entry.getValue(), seconds);
+            json.add(entry.getKey().toLowerCase(Locale.ROOT), toJson(entry.getValue(), seconds));
+        }
+        print("total", total, seconds);
+        json.add("total", toJson(total, seconds));
+        System.out.printf(Locale.ROOT, "%nServer heap: %s before, %s after, %s maximum.%n", megabytes(heapBefore), megabytes(heapAfter), maxHeap > 0 ? megabytes(OptionalLong.of(maxHeap)) : "unknown");
+        heapBefore.ifPresent(heap -> json.addProperty("heapBefore", heap));
+        heapAfter.ifPresent(heap -> json.addProperty("heapAfter", heap));
+        if (maxHeap > 0) json.addProperty("heapMax", maxHeap);
+        Files.writeString(config.output(), new Gson().toJson(json) + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        System.out.println("Results appended to " + config.output());
+    }
+
+    private static void print(String name, LatencyHistogram histogram, double seconds) {
+        System.out.printf(Locale.ROOT, "%-8s %10d %10.1f %7.2f%% %10.2f %10.2f %10.2f %10.2f%n",
+                name, histogram.count(), histogram.count() / seconds, errorRate(histogram) * 100,
+                histogram.quantile(0.5) / 1000d, histogram.quantile(0.99) / 1000d, histogram.quantile(0.999) / 1000d, histogram.quantile(1) / 1000d);
+    }
+
+    private static JsonObject toJson(LatencyHistogram histogram, double seconds) {
+        JsonObject json = new JsonObject();
+        json.addProperty("requests", histogram.count());
+        json.addProperty("throughput", histogram.count() / seconds);
+        json.addProperty("errorRate", errorRate(histogram));
+        json.addProperty("p50Micros", histogram.quantile(0.5));
+        json.addProperty("p99Micros", histogram.quantile(0.99));
+        json.addProperty("p999Micros", histogram.quantile(0.999));
+        json.addProperty("maxMicros", histogram.quantile(1));
+        return json;
+    }
+
+    private static double errorRate(LatencyHistogram histogram) {
+        return histogram.count() == 0 ? 0 : histogram.errors() / (double) histogram.count();
+    }
+
+    private static String megabytes(OptionalLong bytes) {
+        return bytes.isPresent() ? String.format(Locale.ROOT, "%.1f MiB", bytes.getAsLong() / (1024d * 1024d)) : "unknown";
+    }
+}
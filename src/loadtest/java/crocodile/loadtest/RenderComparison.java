@@ -0,0 +1,109 @@
+package crocodile.loadtest;
+
+import crocodile.feed.ICalWriter;
+import crocodile.feed.RenderConfig;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.StoredCalendar;
+import crocodile.model.VirtualCalendar;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Renders the same events with both render engines and fails if the output differs in a single byte, so the
+// native engine stays a drop-in replacement for ical4j.
+// Run with ./gradlew renderComparison, also part of ./gradlew check
+public class RenderComparison {
+
+    private static final Instant MODIFIED = Instant.parse("2024-03-05T07:08:09Z");
+
+    public static void main(String[] args) throws Exception {
+        List<ConfiguredCalendar> calendars = List.of(
+                new StoredCalendar("utc", "UTC", "open", "open", "open", null, null),
+                new StoredCalendar("berlin", "Europe/Berlin", "open", "open", "open", null, null),
+                new StoredCalendar("newyork", "America/New_York", "open", "open", "open", null, null),
+                new StoredCalendar("kolkata", "Asia/Kolkata", "open", "open", "open", null, null),
+                new StoredCalendar("lordhowe", "Australia/Lord_Howe", "open", "open", "open", null, null),
+                new StoredCalendar("portauprince", "America/Port-au-Prince", "open", "open", "open", null, null),
+                new VirtualCalendar(List.of("utc", "berlin"), "Europe/Berlin", "open", "open", null, null),
+                new VirtualCalendar(List.of("newyork", "kolkata"), "Pacific/Chatham", "open", "open", null, null)
+        );
+        List<Event> events = events();
+        RenderConfig ical4j = new RenderConfig(RenderConfig.Engine.ICAL4J, false);
+        RenderConfig nativeEngine = new RenderConfig(RenderConfig.Engine.NATIVE, false);
+
+        int failures = 0;
+        for (ConfiguredCalendar calendar : calendars) {
+            String name = (calendar instanceof StoredCalendar stored ? stored.id() : "virtual " + calendar.getStoredCalendars()) + " (" + calendar.timezone().getID() + ")";
+            for (Event event : events) {
+                byte[] expected = ICalWriter.render(calendar, ical4j, List.of(event)).getBytes(StandardCharsets.UTF_8);
+                byte[] actual = ICalWriter.render(calendar, nativeEngine, List.of(event)).getBytes(StandardCharsets.UTF_8);
+                if (!Arrays.equals(expected, actual)) {
+                    failures += 1;
+                    System.out.println("Output differs for " + event.title().lines().findFirst().orElse("") + " in " + name + ":");
+                    printDifference(new String(expected, StandardCharsets.UTF_8), new String(actual, StandardCharsets.UTF_8));
+                }
+            }
+            byte[] expected = ICalWriter.render(calendar, ical4j, events).getBytes(StandardCharsets.UTF_8);
+            byte[] actual = ICalWriter.render(calendar, nativeEngine, events).getBytes(StandardCharsets.UTF_8);
+            if (!Arrays.equals(expected, actual)) {
+                failures += 1;
+                System.out.println("Output of the full calendar differs in " + name + ".");
+            }
+        }
+        int compared = calendars.size() * (events.size() + 1);
+        if (failures != 0) throw new IllegalStateException(failures + " of " + compared + " renderings differ between the render engines.");
+        System.out.println("All " + compared + " renderings are equal.");
+    }
+
+    private static List<Event> events() {
+        List<Event> events = new ArrayList<>();
+        Event.Timed summer = new Event.Timed(Instant.parse("2024-07-01T10:00:00Z"), Instant.parse("2024-07-01T11:30:00Z"));
+        events.add(event("plain", null, null, null, summer));
+        events.add(event("double \"quotes\" and 'single' quotes", "\"quoted\"", "at \"home\"", null, summer));
+        events.add(event("escapes \\ ; , : done", "back\\slash; semi, comma: colon", "a;b,c\\d", null, summer));
+        events.add(event("line\r\nbreaks", "crlf\r\nlf\ncr\rend\r\n\r\n", "trailing\n", null, summer));
+        events.add(event("lone carriage return\r", "\r\r\n\n\r", null, null, summer));
+        events.add(event("tab\tand control \u0001 characters", "\u0000\u001f\u007f", null, null, summer));
+        events.add(event("Grüße aus Köln", "Ærøskøbing, Łódź, Ελλάδα, 東京, 서울", "Zürich", null, summer));
+        events.add(event("emoji 🐊 and surrogates", "🎉🎂 party", "🏠", null, summer));
+        events.add(event("long " + "x".repeat(200), "ä".repeat(120) + " " + "🐊".repeat(40), null, null, summer));
+        events.add(event("url", null, null, "https://example.com/path?query=1&other=a,b;c#fragment", summer));
+        events.add(event("url with quotes", null, null, "https://example.com/\"quoted\"", summer));
+        events.add(event("invalid url", null, null, "not a url with spaces", summer));
+        events.add(event("empty strings", "", "", "", summer));
+        events.add(event("winter", null, null, null, new Event.Timed(Instant.parse("2024-01-15T23:45:00Z"), Instant.parse("2024-01-16T00:15:00Z"))));
+        events.add(event("dst start", null, null, null, new Event.Timed(Instant.parse("2024-03-31T00:30:00Z"), Instant.parse("2024-03-31T01:30:00Z"))));
+        events.add(event("dst end", null, null, null, new Event.Timed(Instant.parse("2024-10-27T00:30:00Z"), Instant.parse("2024-10-27T01:30:00Z"))));
+        events.add(event("before 1970", null, null, null, new Event.Timed(Instant.parse("1969-12-31T23:59:59Z"), Instant.parse("1970-01-01T00:00:01Z"))));
+        events.add(event("far future", null, null, null, new Event.Timed(Instant.parse("2099-06-30T12:00:00Z"), Instant.parse("2099-06-30T13:00:00Z"))));
+        events.add(event("all day", "one day", null, null, new Event.AllDay(LocalDate.of(2024, 2, 29), LocalDate.of(2024, 2, 29))));
+        events.add(event("all day over new year", null, null, null, new Event.AllDay(LocalDate.of(2023, 12, 30), LocalDate.of(2024, 1, 2))));
+        return events;
+    }
+
+    private static Event event(String title, String description, String location, String url, Event.Times times) {
+        UUID uid = UUID.nameUUIDFromBytes(title.getBytes(StandardCharsets.UTF_8));
+        return new Event(uid, title, MODIFIED, description, location, url, times);
+    }
+
+    private static void printDifference(String expected, String actual) {
+        List<String> expectedLines = expected.lines().toList();
+        List<String> actualLines = actual.lines().toList();
+        for (int i = 0; i < Math.max(expectedLines.size(), actualLines.size()); i++) {
+            String expectedLine = i < expectedLines.size() ? expectedLines.get(i) : "<missing>";
+            String actualLine = i < actualLines.size() ? actualLines.get(i) : "<missing>";
+            if (!expectedLine.equals(actualLine)) {
+                System.out.println("  ical4j: " + expectedLine);
+                System.out.println("  native: " + actualLine);
+                return;
+            }
+        }
+        System.out.println("  Line endings differ.");
+    }
+}
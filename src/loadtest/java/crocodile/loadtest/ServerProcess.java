@@ -0,0 +1,153 @@
+package crocodile.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+// Runs crocodile.Main in a separate JVM, so the heap usage reported by the server is not distorted by the load generator
+public class ServerProcess implements AutoCloseable {
+
+    public static final String METRICS_PATH = "/metrics";
+
+    private final Process process;
+    private final HttpClient client;
+    private final URI base;
+
+    private ServerProcess(Process process, HttpClient client, URI base) {
+        this.process = process;
+        this.client = client;
+        this.base = base;
+    }
+
+    public static ServerProcess start(LoadOptions options, Path workDir, HttpClient client) throws IOException, InterruptedException {
+        Path config = workDir.resolve("crocodile.groovy");
+        Files.writeString(config, config(options, workDir.resolve("db")));
+        String classpath = System.getProperty("crocodile.classpath", System.getProperty("java.class.path"));
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : options.serverArgs().split(" ")) {
+            if (!arg.isBlank()) command.add(arg);
+        }
+        command.addAll(List.of("-cp", classpath, "crocodile.Main", "--config", config.toString()));
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve("server.log").toFile())
+                .start();
+        ServerProcess server = new ServerProcess(process, client, URI.create("http://localhost:" + options.port()));
+        try {
+            server.awaitStartup(Duration.ofSeconds(60), workDir.resolve("server.log"));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    public URI base() {
+        return this.base;
+    }
+
+    public OptionalLong heapUsed() {
+        try {
+            HttpResponse<String> response = this.client.send(HttpRequest.newBuilder(this.base.resolve(METRICS_PATH)).build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) return OptionalLong.empty();
+            for (String line : response.body().split("\n")) {
+                if (line.startsWith("crocodile_jvm_heap_used_bytes ")) {
+                    return OptionalLong.of(Long.parseLong(line.substring(line.indexOf(' ') + 1).strip()));
+                }
+            }
+            return OptionalLong.empty();
+        } catch (IOException | NumberFormatException e) {
+            return OptionalLong.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return OptionalLong.empty();
+        }
+    }
+
+    private void awaitStartup(Duration timeout, Path log) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!this.process.isAlive()) {
+                throw new IllegalStateException("Server exited with code " + this.process.exitValue() + ", see " + log);
+            }
+            try {
+                HttpResponse<Void> response = this.client.send(HttpRequest.newBuilder(this.base.resolve(METRICS_PATH)).build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) return;
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Server did not start within " + timeout.toSeconds() + " seconds, see " + log);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.process.destroy();
+        if (!this.process.waitFor(10, java.util.concurrent.TimeUnit.SECONDS)) {
+            this.process.destroyForcibly();
+        }
+    }
+
+    public static String storedCalendar(int idx) {
+        return "load" + idx;
+    }
+
+    public static String virtualCalendar(int idx) {
+        return "loadvirt" + idx;
+    }
+
+    private static String config(LoadOptions options, Path embeddedPath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("port ").append(options.port()).append('\n');
+        sb.append("metrics '").append(METRICS_PATH).append("'\n");
+        sb.append("metricsLogin 'open'\n");
+        sb.append("database {\n");
+        if (options.dbEngine().equals("embedded")) {
+            sb.append("    engine 'embedded'\n");
+            sb.append("    path ").append(quote(embeddedPath.toString())).append('\n');
+        } else {
+            sb.append("    host ").append(quote(options.dbHost())).append('\n');
+            sb.append("    port ").append(options.dbPort()).append('\n');
+            sb.append("    user ").append(quote(options.dbUser())).append('\n');
+            sb.append("    password ").append(quote(options.dbPassword())).append('\n');
+        }
+        if (options.groupCommitWindow() >= 0) {
+            sb.append("    groupCommit {\n");
+            sb.append("        enabled true\n");
+            sb.append("        window ").append(options.groupCommitWindow()).append('\n');
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        if (!options.cache()) sb.append("cache {\n    maxSize 0\n}\n");
+        sb.append("limits {\n    batchSize ").append(Math.max(1000, options.events())).append("\n}\n");
+        for (int i = 0; i < options.storedCalendars(); i++) {
+            sb.append("calendar '").append(storedCalendar(i)).append("', {\n");
+            sb.append("    loginRead 'open'\n");
+            sb.append("    loginWrite 'open'\n");
+            sb.append("}\n");
+        }
+        // Every virtual calendar combines two neighbouring stored calendars
+        for (int i = 0; i < options.virtualCalendars(); i++) {
+            sb.append("virtual '").append(virtualCalendar(i)).append("', {\n");
+            sb.append("    from '").append(storedCalendar(i % options.storedCalendars())).append("'\n");
+            if (options.storedCalendars() > 1) sb.append("    from '").append(storedCalendar((i + 1) % options.storedCalendars())).append("'\n");
+            sb.append("    loginRead 'open'\n");
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,133 @@
+package crocodile.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import joptsimple.util.PathConverter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Starts the server repeatedly with --exit-after-start and reports the startup time it logs, which is measured from
+// process start until the server accepts requests. Every variant adds one of the startup caches.
+// Run with ./gradlew startupBenchmark
+public class StartupBenchmark {
+
+    private static final Pattern STARTED = Pattern.compile("Server started in (\\d+) ms");
+
+    public static void main(String[] args) throws Exception {
+        OptionParser options = new OptionParser(false);
+        OptionSpec<Void> specHelp = options.accepts("help", "Show help.").forHelp();
+        OptionSpec<Integer> specRuns = options.accepts("runs", "The amount of measured starts per variant.").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Integer> specCalendars = options.accepts("calendars", "The amount of calendars in the config.").withRequiredArg().ofType(Integer.class).defaultsTo(50);
+        OptionSpec<String> specServerArgs = options.accepts("server-args", "Additional JVM arguments for the server.").withRequiredArg().defaultsTo("-Xmx512m");
+        OptionSpec<Path> specOutput = options.accepts("output", "A file to which the results are appended as JSON line.").withRequiredArg().withValuesConvertedBy(new PathConverter()).defaultsTo(Path.of("build", "startup", "results.jsonl"));
+        OptionSet set = options.parse(args);
+
+        if (set.has(specHelp)) {
+            options.printHelpOn(System.out);
+            return;
+        }
+
+        int runs = set.valueOf(specRuns);
+        if (runs < 1) throw new IllegalStateException("At least one run is needed.");
+        Path output = set.valueOf(specOutput).toAbsolutePath().normalize();
+        Path workDir = output.getParent();
+        Files.createDirectories(workDir);
+        Path config = workDir.resolve("crocodile.groovy");
+        Files.writeString(config, config(workDir.resolve("db"), set.valueOf(specCalendars)));
+        Path configCache = workDir.resolve("config-cache");
+        @Nullable String cds = System.getProperty("crocodile.cds");
+        List<String> serverArgs = Arrays.stream(set.valueOf(specServerArgs).split(" ")).filter(arg -> !arg.isBlank()).toList();
+
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant("baseline", List.of(), List.of()));
+        variants.add(new Variant("config-cache", List.of(), List.of("--config-cache", configCache.toString())));
+        if (cds != null && Files.isRegularFile(Path.of(cds))) {
+            variants.add(new Variant("cds", List.of("-XX:SharedArchiveFile=" + cds), List.of("--config-cache", configCache.toString())));
+        } else {
+            System.out.println("No class data sharing archive found, run ./gradlew cdsArchive to include it.");
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("time", Instant.now().toString());
+        json.addProperty("runs", runs);
+        json.addProperty("calendars", set.valueOf(specCalendars));
+        System.out.printf(Locale.ROOT, "%n%-14s %10s %10s %10s%n", "", "min ms", "median ms", "max ms");
+        for (Variant variant : variants) {
+            // Fills the config cache and the OS file cache
+            start(variant, serverArgs, config, workDir);
+            long[] times = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = start(variant, serverArgs, config, workDir);
+            }
+            Arrays.sort(times);
+            System.out.printf(Locale.ROOT, "%-14s %10d %10d %10d%n", variant.name(), times[0], times[runs / 2], times[runs - 1]);
+            JsonObject result = new JsonObject();
+            result.addProperty("minMillis", times[0]);
+            result.addProperty("medianMillis", times[runs / 2]);
+            result.addProperty("maxMillis", times[runs - 1]);
+            json.add(variant.name(), result);
+        }
+        Files.writeString(output, new Gson().toJson(json) + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        System.out.println("Results appended to " + output);
+    }
+
+    private static long start(Variant variant, List<String> serverArgs, Path config, Path workDir) throws IOException, InterruptedException {
+        String classpath = System.getProperty("crocodile.classpath", System.getProperty("java.class.path"));
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(serverArgs);
+        command.addAll(variant.jvmArgs());
+        command.addAll(List.of("-cp", classpath, "crocodile.Main", "--config", config.toString(), "--exit-after-start"));
+        command.addAll(variant.args());
+        Path log = workDir.resolve("server.log");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        if (!process.waitFor(60, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("Server did not exit within 60 seconds, see " + log);
+        }
+        Matcher matcher = STARTED.matcher(Files.readString(log));
+        if (process.exitValue() != 0 || !matcher.find()) {
+            throw new IllegalStateException("Server exited with code " + process.exitValue() + " before it started, see " + log);
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    // The embedded database is used, so no database server is needed
+    private static String config(Path database, int calendars) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("port 0\n");
+        sb.append("metrics '").append(ServerProcess.METRICS_PATH).append("'\n");
+        sb.append("metricsLogin 'open'\n");
+        sb.append("database {\n");
+        sb.append("    engine 'embedded'\n");
+        sb.append("    path '").append(database.toString().replace("\\", "\\\\").replace("'", "\\'")).append("'\n");
+        sb.append("}\n");
+        for (int i = 0; i < calendars; i++) {
+            sb.append("calendar '").append(ServerProcess.storedCalendar(i)).append("', {\n");
+            sb.append("    loginRead 'open'\n");
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private record Variant(String name, List<String> jvmArgs, List<String> args) {}
+}
@@ -0,0 +1,177 @@
+package crocodile.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+// Simulated webcal clients. Pollers fetch calendars with If-None-Match like calendar apps do, writers add,
+// modify and delete events. Every worker sends at a fixed pace and latencies are measured from the time a request
+// was scheduled, so a slow server is not hidden by workers that fall behind.
+public class Workload {
+
+    public static final List<String> OPERATIONS = List.of("GET", "PUT", "PATCH", "DELETE");
+    // The uids of added events are sent back in a single header, which must not exceed the response header limit
+    private static final int SEED_BATCH = 100;
+
+    private final LoadOptions options;
+    private final HttpClient client;
+    private final URI base;
+    private final List<ConcurrentLinkedDeque<UUID>> uids;
+    private final Map<String, LatencyHistogram> histograms;
+    private volatile boolean recording;
+    private volatile boolean running;
+
+    public Workload(LoadOptions options, HttpClient client, URI base) {
+        this.options = options;
+        this.client = client;
+        this.base = base;
+        this.uids = new ArrayList<>();
+        for (int i = 0; i < options.storedCalendars(); i++) {
+            this.uids.add(new ConcurrentLinkedDeque<>());
+        }
+        this.histograms = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            this.histograms.put(operation, new LatencyHistogram());
+        }
+        this.recording = false;
+        this.running = false;
+    }
+
+    public Map<String, LatencyHistogram> histograms() {
+        return this.histograms;
+    }
+
+    // Replaces the events of every stored calendar with freshly generated ones
+    public void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < this.options.storedCalendars(); i++) {
+            String calendar = ServerProcess.storedCalendar(i);
+            check(this.send(HttpRequest.newBuilder(this.uri(calendar)).DELETE()), calendar);
+            for (int added = 0; added < this.options.events(); added += SEED_BATCH) {
+                int count = Math.min(SEED_BATCH, this.options.events() - added);
+                StringBuilder body = new StringBuilder("[");
+                for (int j = 0; j < count; j++) {
+                    if (j != 0) body.append(',');
+                    body.append(event("Seeded event " + (added + j)));
+                }
+                body.append(']');
+                HttpResponse<Void> response = this.send(HttpRequest.newBuilder(this.uri(calendar)).PUT(HttpRequest.BodyPublishers.ofString(body.toString())));
+                check(response, calendar);
+                this.rememberUids(i, response);
+            }
+        }
+    }
+
+    public List<Thread> start() {
+        this.running = true;
+        int workers = this.options.pollers() + this.options.writers();
+        long interval = this.options.rate() > 0 ? (long) (workers * 1_000_000_000L / this.options.rate()) : 0;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            boolean writer = i < this.options.writers();
+            threads.add(Thread.ofVirtual().name((writer ? "writer-" : "poller-") + i).start(() -> this.run(writer, interval)));
+        }
+        return threads;
+    }
+
+    public void record(boolean recording) {
+        this.recording = recording;
+    }
+
+    public void stop(List<Thread> threads) throws InterruptedException {
+        this.running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void run(boolean writer, long interval) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, String> etags = new HashMap<>();
+        // Spread the workers over the first interval, so they don't all send at once
+        long next = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0);
+        while (this.running) {
+            long delay = next - System.nanoTime();
+            if (delay > 0) LockSupport.parkNanos(delay);
+            if (!this.running) return;
+            long scheduled = interval > 0 ? next : System.nanoTime();
+            next += interval;
+            String operation = writer ? "PUT" : "GET";
+            boolean success;
+            try {
+                if (writer) {
+                    int idx = random.nextInt(this.options.storedCalendars());
+                    ConcurrentLinkedDeque<UUID> known = this.uids.get(idx);
+                    double choice = random.nextDouble();
+                    UUID uid;
+                    if (choice < 0.3 && (uid = known.pollFirst()) != null) {
+                        operation = "PATCH";
+                        HttpResponse<Void> response = this.send(HttpRequest.newBuilder(this.uri(ServerProcess.storedCalendar(idx) + "/" + uid)).method("PATCH", HttpRequest.BodyPublishers.ofString(event("Modified event"))));
+                        success = response.statusCode() / 100 == 2;
+                        known.offerLast(uid);
+                    } else if (choice < 0.5 && (uid = known.pollFirst()) != null) {
+                        operation = "DELETE";
+                        success = this.send(HttpRequest.newBuilder(this.uri(ServerProcess.storedCalendar(idx) + "/" + uid)).DELETE()).statusCode() / 100 == 2;
+                    } else {
+                        HttpResponse<Void> response = this.send(HttpRequest.newBuilder(this.uri(ServerProcess.storedCalendar(idx))).PUT(HttpRequest.BodyPublishers.ofString(event("New event"))));
+                        success = response.statusCode() / 100 == 2;
+                        if (success) this.rememberUids(idx, response);
+                    }
+                } else {
+                    int idx = random.nextInt(this.options.storedCalendars() + this.options.virtualCalendars());
+                    String calendar = idx < this.options.storedCalendars() ? ServerProcess.storedCalendar(idx) : ServerProcess.virtualCalendar(idx - this.options.storedCalendars());
+                    HttpRequest.Builder request = HttpRequest.newBuilder(this.uri(calendar));
+                    String etag = this.options.conditional() ? etags.get(calendar) : null;
+                    if (etag != null) request.header("If-None-Match", etag);
+                    HttpResponse<Void> response = this.send(request);
+                    success = response.statusCode() == 200 || response.statusCode() == 304;
+                    response.headers().firstValue("ETag").ifPresent(value -> etags.put(calendar, value));
+                }
+            } catch (IOException e) {
+                success = false;
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (this.recording) this.histograms.get(operation).record(System.nanoTime() - scheduled, success);
+        }
+    }
+
+    private void rememberUids(int idx, HttpResponse<?> response) {
+        for (String uid : response.headers().firstValue("X-EventID").orElse("").split(",")) {
+            if (!uid.isEmpty()) this.uids.get(idx).offerLast(UUID.fromString(uid));
+        }
+    }
+
+    private HttpResponse<Void> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return this.client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private URI uri(String path) {
+        return this.base.resolve("/" + path);
+    }
+
+    private static void check(HttpResponse<?> response, String calendar) {
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException("Failed to seed calendar " + calendar + ": HTTP " + response.statusCode());
+        }
+    }
+
+    private static String event(String title) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS).plus(random.nextLong(-180 * 24, 180 * 24), ChronoUnit.HOURS);
+        Instant end = start.plus(random.nextLong(1, 4), ChronoUnit.HOURS);
+        return "{\"title\":\"" + title + "\",\"location\":\"Room " + random.nextInt(100) + "\",\"start\":\"" + start + "\",\"end\":\"" + end + "\"}";
+    }
+}
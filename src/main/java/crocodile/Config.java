@@ -1,7 +1,15 @@
 package crocodile;
 
 import crocodile.db.DatabaseConfig;
+import crocodile.db.SyncConfig;
+import crocodile.feed.CacheConfig;
+import crocodile.feed.CompressionConfig;
+import crocodile.feed.RenderConfig;
+import crocodile.feed.StreamConfig;
+import crocodile.login.LoginCacheConfig;
 import crocodile.model.ConfiguredCalendar;
+import crocodile.model.ImportConfig;
+import crocodile.model.LimitsConfig;
 
 import javax.annotation.Nullable;
 import java.util.Map;
@@ -10,13 +18,33 @@ public class Config {
     
     private final int port;
     @Nullable private final String redirect;
+    @Nullable private final String metrics;
+    private final String metricsLogin;
     private final DatabaseConfig database;
+    private final CacheConfig cache;
+    private final RenderConfig render;
+    private final CompressionConfig compression;
+    private final LimitsConfig limits;
+    private final ImportConfig imports;
+    private final LoginCacheConfig login;
+    private final SyncConfig sync;
+    private final StreamConfig stream;
     private final Map<String, ConfiguredCalendar> calendars;
 
-    public Config(int port, @Nullable String redirect, DatabaseConfig database, Map<String, ConfiguredCalendar> calendars) {
+    public Config(int port, @Nullable String redirect, @Nullable String metrics, String metricsLogin, DatabaseConfig database, CacheConfig cache, RenderConfig render, CompressionConfig compression, LimitsConfig limits, ImportConfig imports, LoginCacheConfig login, SyncConfig sync, StreamConfig stream, Map<String, ConfiguredCalendar> calendars) {
         this.port = port;
         this.redirect = redirect;
+        this.metrics = metrics;
+        this.metricsLogin = metricsLogin;
         this.database = database;
+        this.cache = cache;
+        this.render = render;
+        this.compression = compression;
+        this.limits = limits;
+        this.imports = imports;
+        this.login = login;
+        this.sync = sync;
+        this.stream = stream;
         this.calendars = Map.copyOf(calendars);
     }
 
@@ -29,12 +57,57 @@ public class Config {
         return this.redirect;
     }
 
+    @Nullable
+    public String metrics() {
+        return this.metrics;
+    }
+
+    public String metricsLogin() {
+        return this.metricsLogin;
+    }
+
     public DatabaseConfig database() {
         return this.database;
     }
 
+    public CacheConfig cache() {
+        return this.cache;
+    }
+
+    public RenderConfig render() {
+        return this.render;
+    }
+
+    public CompressionConfig compression() {
+        return this.compression;
+    }
+
+    public LimitsConfig limits() {
+        return this.limits;
+    }
+
+    public ImportConfig imports() {
+        return this.imports;
+    }
+
+    public LoginCacheConfig login() {
+        return this.login;
+    }
+
+    public SyncConfig sync() {
+        return this.sync;
+    }
+
+    public StreamConfig stream() {
+        return this.stream;
+    }
+
     @Nullable
     public ConfiguredCalendar calendar(String id) {
         return this.calendars.getOrDefault(id, null);
     }
+
+    public Map<String, ConfiguredCalendar> calendars() {
+        return this.calendars;
+    }
 }
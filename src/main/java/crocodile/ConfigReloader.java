@@ -0,0 +1,158 @@
+package crocodile;
+
+import crocodile.config.ConfigParser;
+import crocodile.feed.FeedCache;
+import crocodile.login.LoginCache;
+import crocodile.model.ConfiguredCalendar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// Watches the config and login files and applies changes without a restart. Calendars that are configured the
+// same way keep their instances, so their cached feeds stay valid. Settings that are only read on startup keep
+// their old values until the next restart.
+public class ConfigReloader implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigReloader.class);
+    // Editors often write a file in multiple steps
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    private final Path configFile;
+    @Nullable private final Path configCache;
+    @Nullable private final Path loginFile;
+    private final LiveConfig config;
+    private final FeedCache cache;
+    private final LoginCache logins;
+    private final WatchService watcher;
+    private volatile Thread thread;
+
+    public ConfigReloader(Path configFile, @Nullable Path configCache, @Nullable Path loginFile, LiveConfig config, FeedCache cache, LoginCache logins) throws IOException {
+        this.configFile = configFile.toAbsolutePath().normalize();
+        this.configCache = configCache;
+        this.loginFile = loginFile == null ? null : loginFile.toAbsolutePath().normalize();
+        this.config = config;
+        this.cache = cache;
+        this.logins = logins;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.thread = null;
+        // Files are replaced by renames, so the directories are watched instead of the files
+        this.register(this.configFile.getParent());
+        if (this.loginFile != null && !this.loginFile.getParent().equals(this.configFile.getParent())) this.register(this.loginFile.getParent());
+    }
+
+    private void register(Path directory) throws IOException {
+        directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    public void start() {
+        if (this.thread != null) return;
+        this.thread = Thread.ofPlatform().name("config-reloader").daemon().start(this::run);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                boolean configChanged = false;
+                boolean loginChanged = false;
+                @Nullable WatchKey key = this.watcher.take();
+                while (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (!(event.context() instanceof Path name)) continue;
+                        Path file = directory.resolve(name);
+                        if (file.equals(this.configFile)) configChanged = true;
+                        if (file.equals(this.loginFile)) loginChanged = true;
+                    }
+                    key.reset();
+                    key = this.watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (loginChanged) {
+                    logger.info("Login file changed, reloading logins.");
+                    this.logins.refresh();
+                }
+                if (configChanged) this.reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //
+        }
+    }
+
+    // Reads and validates the config file and swaps it in. The current config is kept if the file is invalid.
+    public void reload() {
+        Config next;
+        try {
+            next = ConfigParser.readConfig(this.configFile, this.configCache);
+        } catch (Exception e) {
+            logger.error("Failed to reload config, keeping the current one.", e);
+            return;
+        }
+        Config current = this.config.get();
+        warnRestart("port", current.port(), next.port());
+        warnRestart("redirect", current.redirect(), next.redirect());
+        warnRestart("metrics", current.metrics(), next.metrics());
+        warnRestart("database", current.database(), next.database());
+        warnRestart("cache", current.cache(), next.cache());
+        warnRestart("compression", current.compression(), next.compression());
+        warnRestart("imports", current.imports(), next.imports());
+        warnRestart("login", current.login(), next.login());
+        warnRestart("sync", current.sync(), next.sync());
+
+        // Feeds rendered with other render settings can't be reused
+        boolean renderChanged = !current.render().equals(next.render());
+        Map<String, ConfiguredCalendar> calendars = new HashMap<>();
+        List<ConfiguredCalendar> dropped = new ArrayList<>();
+        int added = 0;
+        for (Map.Entry<String, ConfiguredCalendar> entry : next.calendars().entrySet()) {
+            @Nullable ConfiguredCalendar previous = current.calendar(entry.getKey());
+            if (previous != null && !renderChanged && previous.sameDefinition(entry.getValue())) {
+                calendars.put(entry.getKey(), previous);
+            } else {
+                calendars.put(entry.getKey(), entry.getValue());
+                if (previous != null) dropped.add(previous);
+                else added += 1;
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<String, ConfiguredCalendar> entry : current.calendars().entrySet()) {
+            if (!calendars.containsKey(entry.getKey())) {
+                dropped.add(entry.getValue());
+                removed += 1;
+            }
+        }
+
+        this.config.set(new Config(
+                current.port(), current.redirect(), current.metrics(), next.metricsLogin(), current.database(), current.cache(),
+                next.render(), current.compression(), next.limits(), current.imports(), current.login(), current.sync(), next.stream(),
+                calendars
+        ));
+        for (ConfiguredCalendar calendar : dropped) {
+            this.cache.drop(calendar);
+        }
+        logger.info("Reloaded config: {} calendars added, {} changed, {} removed.", added, dropped.size() - removed, removed);
+    }
+
+    private static void warnRestart(String setting, @Nullable Object current, @Nullable Object next) {
+        if (!Objects.equals(current, next)) logger.warn("Changes to {} take effect after a restart.", setting);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watcher.close();
+        if (this.thread != null) this.thread.interrupt();
+    }
+}
@@ -0,0 +1,20 @@
+package crocodile;
+
+// The config currently in use. It is replaced as a whole when the config file is reloaded, so a request that
+// reads it once sees a consistent config.
+public class LiveConfig {
+
+    private volatile Config config;
+
+    public LiveConfig(Config config) {
+        this.config = config;
+    }
+
+    public Config get() {
+        return this.config;
+    }
+
+    void set(Config config) {
+        this.config = config;
+    }
+}
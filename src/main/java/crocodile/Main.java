@@ -2,8 +2,17 @@ package crocodile;
 
 import crocodile.config.ConfigParser;
 import crocodile.db.Database;
+import crocodile.feed.ChangeSubscriptions;
+import crocodile.feed.FeedCache;
+import crocodile.login.LoginCache;
+import crocodile.metrics.Metrics;
 import crocodile.route.AlterEventRoute;
+import crocodile.route.ChangesRoute;
 import crocodile.route.DeleteEventRoute;
+import crocodile.route.EventStreamRoute;
+import crocodile.route.ExportRoute;
+import crocodile.route.ImportRoute;
+import crocodile.route.MetricsRoute;
 import crocodile.route.NewEventRoute;
 import crocodile.route.WebcalRoute;
 import joptsimple.OptionParser;
@@ -14,10 +23,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Service;
 
-import javax.security.auth.login.Configuration;
+import javax.annotation.Nullable;
 import java.io.FileNotFoundException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
@@ -28,6 +42,8 @@ public class Main {
         OptionSpec<Void> specHelp = options.accepts("help", "Show help.").forHelp();
         OptionSpec<Path> specConfig = options.accepts("config", "The config file to load.").withRequiredArg().withValuesConvertedBy(new PathConverter());
         OptionSpec<Path> specLogin = options.accepts("login", "The login file to load.").withRequiredArg().withValuesConvertedBy(new PathConverter());
+        OptionSpec<Path> specConfigCache = options.accepts("config-cache", "A directory in which the compiled config is cached.").withRequiredArg().withValuesConvertedBy(new PathConverter());
+        OptionSpec<Void> specExitAfterStart = options.accepts("exit-after-start", "Stop the server once it started, used for training runs.");
         OptionSet set = options.parse(args);
         
         if (set.has(specHelp)) {
@@ -40,7 +56,6 @@ public class Main {
             if (!Files.isRegularFile(loginFilePath)) throw new FileNotFoundException("Login file not found: " + loginFilePath);
             logger.info("Setting login file: {}", loginFilePath);
             System.setProperty("java.security.auth.login.config", loginFilePath.toString());
-            Configuration.getConfiguration().refresh();
         }
         
         if (!set.has(specConfig)) {
@@ -48,12 +63,43 @@ public class Main {
         }
         
         logger.info("Reading config.");
-        Config config = ConfigParser.readConfig(set.valueOf(specConfig));
+        @Nullable Path configCache = set.valueOf(specConfigCache);
+        Config config = ConfigParser.readConfig(set.valueOf(specConfig), configCache);
+        LiveConfig liveConfig = new LiveConfig(config);
+        LoginCache logins = new LoginCache(config.login());
+        if (set.has(specLogin)) logins.refresh();
 
         logger.info("Connecting to the database");
         Database database = Database.connect(config.database());
+        FeedCache cache = new FeedCache(config.cache());
+        database.addListener(cache);
+        ChangeSubscriptions subscriptions = new ChangeSubscriptions();
+        database.addListener(subscriptions);
+        database.listen();
+        Metrics.gauge("crocodile_feed_cache_hits", cache::hits);
+        Metrics.gauge("crocodile_feed_cache_misses", cache::misses);
+        Metrics.gauge("crocodile_feed_cache_bytes", cache::size);
+        Metrics.gauge("crocodile_jvm_heap_used_bytes", () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        if (database.notifier() != null) Metrics.gauge("crocodile_notify_lag_milliseconds", database.notifier()::lastLag);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("tombstone-compaction").daemon().factory());
+        long compactionInterval = config.sync().compactionInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long purged = database.compactTombstones(Instant.now().minus(config.sync().retention()));
+                if (purged > 0) logger.info("Compacted {} tombstones.", purged);
+            } catch (Exception e) {
+                logger.warn("Failed to compact tombstones.", e);
+            }
+        }, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+        @Nullable String loginFile = System.getProperty("java.security.auth.login.config");
+        ConfigReloader reloader = new ConfigReloader(set.valueOf(specConfig), configCache, loginFile == null ? null : Path.of(loginFile), liveConfig, cache, logins);
+        reloader.start();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Feed cache: {} hits, {} misses.", cache.hits(), cache.misses());
+            if (database.notifier() != null) logger.info("Change notifications: {}ms maximum lag.", database.notifier().maxLag());
+            scheduler.shutdownNow();
             try {
+                reloader.close();
                 database.close();
             } catch (Exception e) {
                 //
@@ -74,14 +120,30 @@ public class Main {
         });
         
         if (config.redirect() != null) spark.redirect.get("/", config.redirect());
-        spark.get("/:calendar", new WebcalRoute(spark, config, database));
-        spark.get("/:calendar/:uid", new WebcalRoute(spark, config, database));
-        spark.put("/:calendar", new NewEventRoute(spark, config, database));
-        spark.patch("/:calendar/:uid", new AlterEventRoute(spark, config, database));
-        spark.delete("/:calendar", new DeleteEventRoute(spark, config, database));
-        spark.delete("/:calendar/:uid", new DeleteEventRoute(spark, config, database));
+        if (config.metrics() != null) spark.get(config.metrics(), new MetricsRoute(liveConfig, logins));
+        spark.get("/:calendar", new WebcalRoute(spark, liveConfig, database, logins, cache));
+        spark.get("/:calendar/changes", new ChangesRoute(spark, liveConfig, database, logins));
+        spark.get("/:calendar/events-stream", new EventStreamRoute(spark, liveConfig, database, logins, subscriptions));
+        spark.get("/:calendar/export", new ExportRoute(spark, liveConfig, database, logins));
+        spark.get("/:calendar/:uid", new WebcalRoute(spark, liveConfig, database, logins, cache));
+        spark.put("/:calendar", new NewEventRoute(spark, liveConfig, database, logins));
+        spark.post("/:calendar/import", new ImportRoute(spark, liveConfig, database, logins));
+        spark.patch("/:calendar/:uid", new AlterEventRoute(spark, liveConfig, database, logins));
+        spark.delete("/:calendar", new DeleteEventRoute(spark, liveConfig, database, logins));
+        spark.delete("/:calendar/:uid", new DeleteEventRoute(spark, liveConfig, database, logins));
 
         spark.awaitInitialization();
-        logger.info("Server started.");
+        long startup = startupMillis();
+        Metrics.gauge("crocodile_startup_milliseconds", () -> startup);
+        logger.info("Server started in {} ms.", startup);
+        if (set.has(specExitAfterStart)) System.exit(0);
+    }
+
+    // Measured from the start of the process, the JVM start is used if the OS doesn't report it
+    private static long startupMillis() {
+        long start = ProcessHandle.current().info().startInstant()
+                .map(Instant::toEpochMilli)
+                .orElseGet(() -> ManagementFactory.getRuntimeMXBean().getStartTime());
+        return System.currentTimeMillis() - start;
     }
 }
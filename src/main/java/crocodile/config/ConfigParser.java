@@ -2,7 +2,18 @@ package crocodile.config;
 
 import crocodile.Config;
 import crocodile.db.DatabaseConfig;
+import crocodile.db.GroupCommitConfig;
+import crocodile.db.NotifyConfig;
+import crocodile.db.PoolConfig;
+import crocodile.db.SyncConfig;
+import crocodile.feed.CacheConfig;
+import crocodile.feed.CompressionConfig;
+import crocodile.feed.RenderConfig;
+import crocodile.feed.StreamConfig;
+import crocodile.login.LoginCacheConfig;
 import crocodile.model.ConfiguredCalendar;
+import crocodile.model.ImportConfig;
+import crocodile.model.LimitsConfig;
 import crocodile.model.StoredCalendar;
 import crocodile.model.VirtualCalendar;
 import groovy.lang.Binding;
@@ -18,8 +29,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Period;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,16 +41,25 @@ import java.util.Set;
 public class ConfigParser {
     
     public static Config readConfig(Path path) throws IOException {
+        return readConfig(path, null);
+    }
+
+    // Compiled scripts are cached in scriptCache if set
+    public static Config readConfig(Path path, @Nullable Path scriptCache) throws IOException {
         if (!Files.isRegularFile(path)) {
             throw new FileNotFoundException("System configuration not found: " + path.toAbsolutePath().normalize());
         }
 
         CompilerConfiguration compilerConfig = new CompilerConfiguration();
         compilerConfig.setScriptBaseClass(DelegatingScript.class.getName());
-        GroovyShell shell = new GroovyShell(new Binding(), compilerConfig);
         DelegatingScript script;
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            script = (DelegatingScript) shell.parse(reader);
+        if (scriptCache != null) {
+            script = new ScriptCache(scriptCache).load(Files.readString(path), compilerConfig);
+        } else {
+            GroovyShell shell = new GroovyShell(new Binding(), compilerConfig);
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                script = (DelegatingScript) shell.parse(reader);
+            }
         }
         ConfigAdapter dsl = new ConfigAdapter();
         script.setDelegate(dsl);
@@ -48,11 +71,92 @@ public class ConfigParser {
     private static Config build(ConfigAdapter adapter) {
         int port = adapter.port;
         @Nullable String redirect = adapter.redirect;
+        @Nullable String metrics = adapter.metrics;
+        if (metrics != null && (!metrics.startsWith("/") || metrics.length() < 2 || metrics.indexOf('/', 1) >= 0)) throw new IllegalStateException("Invalid metrics path: " + metrics);
         if (adapter.database == null) throw new IllegalStateException("Database not configured");
-        if (adapter.database.host == null) throw new IllegalStateException("Database host not configured");
-        DatabaseConfig database = new DatabaseConfig(adapter.database.host, adapter.database.port, adapter.database.user, adapter.database.password);
+        DatabaseConfig database = buildDatabase(adapter.database);
+        if (adapter.cache.maxSize < 0) throw new IllegalStateException("Negative cache size");
+        if (adapter.cache.ttl < 0) throw new IllegalStateException("Negative cache ttl");
+        if (adapter.cache.coalesceTimeout <= 0) throw new IllegalStateException("Coalesce timeout must be positive");
+        CacheConfig cache = new CacheConfig(adapter.cache.maxSize, Duration.ofSeconds(adapter.cache.ttl), adapter.cache.coalesce, Duration.ofSeconds(adapter.cache.coalesceTimeout));
+        RenderConfig render = buildRender(adapter.render);
+        if (adapter.compression.level < 1 || adapter.compression.level > 9) throw new IllegalStateException("Compression level must be between 1 and 9");
+        if (adapter.compression.minSize < 0) throw new IllegalStateException("Negative minimum compression size");
+        CompressionConfig compression = new CompressionConfig(adapter.compression.enabled, adapter.compression.level, adapter.compression.minSize);
+        if (adapter.limits.batchSize < 1) throw new IllegalStateException("Batch size must be at least 1");
+        if (adapter.limits.pageSize < 1) throw new IllegalStateException("Page size must be at least 1");
+        if (adapter.limits.maxBodySize < 1) throw new IllegalStateException("Maximum body size must be at least 1");
+        if (adapter.limits.maxFieldLength < 1) throw new IllegalStateException("Maximum field length must be at least 1");
+        LimitsConfig limits = new LimitsConfig(adapter.limits.batchSize, adapter.limits.pageSize, adapter.limits.maxBodySize, adapter.limits.maxFieldLength);
+        ImportConfig imports = buildImports(adapter.imports, database);
+        if (adapter.login.maxSize < 0) throw new IllegalStateException("Negative login cache size");
+        if (adapter.login.ttl < 0) throw new IllegalStateException("Negative login cache ttl");
+        LoginCacheConfig login = new LoginCacheConfig(adapter.login.maxSize, Duration.ofSeconds(adapter.login.ttl));
+        if (adapter.sync.retention.isNegative()) throw new IllegalStateException("Negative tombstone retention");
+        if (adapter.sync.compactionInterval.isNegative() || adapter.sync.compactionInterval.isZero()) throw new IllegalStateException("Compaction interval must be positive");
+        SyncConfig sync = new SyncConfig(adapter.sync.retention, adapter.sync.compactionInterval);
+        if (adapter.stream.heartbeat <= 0) throw new IllegalStateException("Stream heartbeat must be positive");
+        if (adapter.stream.maxChanges < 1) throw new IllegalStateException("Stream change limit must be at least 1");
+        StreamConfig stream = new StreamConfig(Duration.ofSeconds(adapter.stream.heartbeat), adapter.stream.maxChanges);
         Map<String, ConfiguredCalendar> calendars = buildCalendars(adapter);
-        return new Config(port, redirect, database, calendars);
+        return new Config(port, redirect, metrics, adapter.metricsLogin, database, cache, render, compression, limits, imports, login, sync, stream, calendars);
+    }
+
+    private static DatabaseConfig buildDatabase(DatabaseAdapter adapter) {
+        DatabaseConfig.Engine engine;
+        try {
+            engine = DatabaseConfig.Engine.valueOf(adapter.engine.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unknown database engine: " + adapter.engine);
+        }
+        if (engine == DatabaseConfig.Engine.POSTGRES && adapter.host == null) throw new IllegalStateException("Database host not configured");
+        if (engine == DatabaseConfig.Engine.EMBEDDED && adapter.path == null) throw new IllegalStateException("Database path not configured");
+        if (adapter.prepareThreshold < 0) throw new IllegalStateException("Negative prepare threshold");
+        if (adapter.statementCacheSize < 0) throw new IllegalStateException("Negative statement cache size");
+        return new DatabaseConfig(engine, adapter.host, adapter.port, adapter.user, adapter.password, adapter.prepareThreshold, adapter.statementCacheSize, buildPool(adapter.pool), buildNotify(adapter.notifications), buildGroupCommit(adapter.groupCommit), adapter.path == null ? null : Path.of(adapter.path));
+    }
+
+    private static PoolConfig buildPool(PoolAdapter adapter) {
+        if (adapter.minSize < 0) throw new IllegalStateException("Negative minimum pool size");
+        if (adapter.maxSize < 1) throw new IllegalStateException("Maximum pool size must be at least 1");
+        if (adapter.minSize > adapter.maxSize) throw new IllegalStateException("Minimum pool size exceeds maximum pool size");
+        if (adapter.timeout <= 0) throw new IllegalStateException("Pool timeout must be positive");
+        if (adapter.validationTimeout <= 0) throw new IllegalStateException("Pool validation timeout must be positive");
+        return new PoolConfig(adapter.minSize, adapter.maxSize, Duration.ofSeconds(adapter.timeout), Duration.ofSeconds(adapter.validationTimeout));
+    }
+
+    private static NotifyConfig buildNotify(NotifyAdapter adapter) {
+        if (adapter.heartbeat <= 0) throw new IllegalStateException("Notification heartbeat must be positive");
+        if (adapter.reconnectDelay <= 0) throw new IllegalStateException("Notification reconnect delay must be positive");
+        return new NotifyConfig(adapter.enabled, Duration.ofSeconds(adapter.heartbeat), Duration.ofSeconds(adapter.reconnectDelay));
+    }
+
+    private static GroupCommitConfig buildGroupCommit(GroupCommitAdapter adapter) {
+        if (adapter.window < 0) throw new IllegalStateException("Negative group commit window");
+        if (adapter.maxBatch < 1) throw new IllegalStateException("Group commit batch size must be at least 1");
+        return new GroupCommitConfig(adapter.enabled, Duration.ofMillis(adapter.window), adapter.maxBatch);
+    }
+
+    // Every running import holds a pooled connection, so imports may use at most half of the pool
+    private static ImportConfig buildImports(ImportsAdapter adapter, DatabaseConfig database) {
+        int poolShare = Math.max(1, database.pool().maxSize() / 2);
+        int maxConcurrent = adapter.maxConcurrent != null ? adapter.maxConcurrent : Math.min(2, poolShare);
+        if (maxConcurrent < 1) throw new IllegalStateException("Concurrent imports must be at least 1");
+        if (database.engine() == DatabaseConfig.Engine.POSTGRES && maxConcurrent > poolShare) throw new IllegalStateException("Concurrent imports must not exceed half of the connection pool");
+        if (adapter.maxSize < 1) throw new IllegalStateException("Maximum import size must be at least 1");
+        if (adapter.timeout <= 0) throw new IllegalStateException("Import timeout must be positive");
+        return new ImportConfig(maxConcurrent, adapter.maxSize, Duration.ofSeconds(adapter.timeout));
+    }
+
+    private static RenderConfig buildRender(RenderAdapter adapter) {
+        RenderConfig.Engine engine;
+        try {
+            engine = RenderConfig.Engine.valueOf(adapter.engine.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unknown render engine: " + adapter.engine);
+        }
+        if (adapter.fold && engine != RenderConfig.Engine.NATIVE) throw new IllegalStateException("Line folding requires the native render engine");
+        return new RenderConfig(engine, adapter.fold);
     }
 
     private static Map<String, ConfiguredCalendar> buildCalendars(ConfigAdapter adapter) {
@@ -73,7 +177,17 @@ public class ConfigParser {
     
         protected int port = 80;
         protected String redirect = null;
+        protected String metrics = null;
+        protected String metricsLogin = "never";
         protected DatabaseAdapter database = null;
+        protected final CacheAdapter cache = new CacheAdapter();
+        protected final RenderAdapter render = new RenderAdapter();
+        protected final CompressionAdapter compression = new CompressionAdapter();
+        protected final LimitsAdapter limits = new LimitsAdapter();
+        protected final ImportsAdapter imports = new ImportsAdapter();
+        protected final LoginAdapter login = new LoginAdapter();
+        protected final SyncAdapter sync = new SyncAdapter();
+        protected final StreamAdapter stream = new StreamAdapter();
         protected final Map<String, ConfiguredCalendar> calendars = new HashMap<>();
 
         public void port(int port) {
@@ -83,6 +197,14 @@ public class ConfigParser {
         public void redirect(String redirect) {
             this.redirect = redirect;
         }
+        
+        public void metrics(String metrics) {
+            this.metrics = metrics;
+        }
+
+        public void metricsLogin(String metricsLogin) {
+            this.metricsLogin = metricsLogin;
+        }
 
         public void database(@DelegatesTo(value = DatabaseAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
             if (this.database != null) throw new IllegalStateException("Multiple database blocks.");
@@ -92,6 +214,54 @@ public class ConfigParser {
             closure.call();
             this.database = adapter;
         }
+
+        public void cache(@DelegatesTo(value = CacheAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.cache);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void render(@DelegatesTo(value = RenderAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.render);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void compression(@DelegatesTo(value = CompressionAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.compression);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void limits(@DelegatesTo(value = LimitsAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.limits);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void imports(@DelegatesTo(value = ImportsAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.imports);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void login(@DelegatesTo(value = LoginAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.login);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void sync(@DelegatesTo(value = SyncAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.sync);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void stream(@DelegatesTo(value = StreamAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.stream);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
     
         public void calendar(String id, @DelegatesTo(value = StoredCalendarAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
             if (calendars.containsKey(id)) throw new IllegalStateException("Duplicate calendar: " + id);
@@ -99,7 +269,7 @@ public class ConfigParser {
             closure.setDelegate(adapter);
             closure.setResolveStrategy(Closure.DELEGATE_FIRST);
             closure.call();
-            this.calendars.put(id, new StoredCalendar(id, adapter.timezone, adapter.loginRead == null ? adapter.loginWrite : adapter.loginRead, adapter.loginWrite));
+            this.calendars.put(id, new StoredCalendar(id, adapter.timezone, adapter.loginRead == null ? adapter.loginWrite : adapter.loginRead, adapter.loginWrite, adapter.loginExport, adapter.past, adapter.future));
         }
     
         public void virtual(String id, @DelegatesTo(value = VirtualCalendarAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
@@ -108,16 +278,27 @@ public class ConfigParser {
             closure.setDelegate(adapter);
             closure.setResolveStrategy(Closure.DELEGATE_FIRST);
             closure.call();
-            this.calendars.put(id, new VirtualCalendar(adapter.sources.stream().sorted().toList(), adapter.timezone, adapter.loginRead == null ? "never" : adapter.loginRead));
+            this.calendars.put(id, new VirtualCalendar(adapter.sources.stream().sorted().toList(), adapter.timezone, adapter.loginRead == null ? "never" : adapter.loginRead, adapter.loginExport, adapter.past, adapter.future));
         }
     }
 
     private static class DatabaseAdapter {
         
+        protected String engine = "postgres";
         protected String host = null;
         protected int port = 5432;
         protected String user = null;
         protected String password = null;
+        protected int prepareThreshold = 5;
+        protected int statementCacheSize = 256;
+        protected final PoolAdapter pool = new PoolAdapter();
+        protected final NotifyAdapter notifications = new NotifyAdapter();
+        protected final GroupCommitAdapter groupCommit = new GroupCommitAdapter();
+        protected String path = null;
+
+        public void engine(String engine) {
+            this.engine = engine;
+        }
 
         public void host(String host) {
             this.host = host;
@@ -134,20 +315,271 @@ public class ConfigParser {
         public void password(String password) {
             this.password = password;
         }
+
+        public void prepareThreshold(int prepareThreshold) {
+            this.prepareThreshold = prepareThreshold;
+        }
+
+        public void statementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+        }
+
+        public void path(String path) {
+            this.path = path;
+        }
+
+        public void pool(@DelegatesTo(value = PoolAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.pool);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void notifications(@DelegatesTo(value = NotifyAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.notifications);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+
+        public void groupCommit(@DelegatesTo(value = GroupCommitAdapter.class, strategy = Closure.DELEGATE_FIRST) Closure<?> closure) {
+            closure.setDelegate(this.groupCommit);
+            closure.setResolveStrategy(Closure.DELEGATE_FIRST);
+            closure.call();
+        }
+    }
+
+    private static class PoolAdapter {
+
+        protected int minSize = 1;
+        protected int maxSize = 10;
+        protected int timeout = 30;
+        protected int validationTimeout = 5;
+
+        public void minSize(int minSize) {
+            this.minSize = minSize;
+        }
+
+        public void maxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public void timeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        public void validationTimeout(int validationTimeout) {
+            this.validationTimeout = validationTimeout;
+        }
+    }
+    
+    private static class NotifyAdapter {
+
+        protected boolean enabled = true;
+        protected int heartbeat = 5;
+        protected int reconnectDelay = 1;
+
+        public void enabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void heartbeat(int heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        public void reconnectDelay(int reconnectDelay) {
+            this.reconnectDelay = reconnectDelay;
+        }
+    }
+    
+    private static class GroupCommitAdapter {
+
+        protected boolean enabled = false;
+        protected int window = 2;
+        protected int maxBatch = 64;
+
+        public void enabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void window(int window) {
+            this.window = window;
+        }
+
+        public void maxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+    }
+    
+    private static class CacheAdapter {
+
+        protected long maxSize = 32 * 1024 * 1024;
+        protected int ttl = 300;
+        protected boolean coalesce = true;
+        protected int coalesceTimeout = 10;
+
+        public void maxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public void ttl(int ttl) {
+            this.ttl = ttl;
+        }
+
+        public void coalesce(boolean coalesce) {
+            this.coalesce = coalesce;
+        }
+
+        public void coalesceTimeout(int coalesceTimeout) {
+            this.coalesceTimeout = coalesceTimeout;
+        }
+    }
+    
+    private static class RenderAdapter {
+
+        protected String engine = "ical4j";
+        protected boolean fold = false;
+
+        public void engine(String engine) {
+            this.engine = engine;
+        }
+
+        public void fold(boolean fold) {
+            this.fold = fold;
+        }
+    }
+    
+    private static class CompressionAdapter {
+
+        protected boolean enabled = true;
+        protected int level = 6;
+        protected int minSize = 1024;
+
+        public void enabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void level(int level) {
+            this.level = level;
+        }
+
+        public void minSize(int minSize) {
+            this.minSize = minSize;
+        }
+    }
+    
+    private static class LimitsAdapter {
+
+        protected int batchSize = 1000;
+        protected int pageSize = 1000;
+        protected long maxBodySize = 4 * 1024 * 1024;
+        protected int maxFieldLength = 64 * 1024;
+
+        public void batchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public void pageSize(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        public void maxBodySize(long maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+
+        public void maxFieldLength(int maxFieldLength) {
+            this.maxFieldLength = maxFieldLength;
+        }
+    }
+    
+    private static class ImportsAdapter {
+
+        protected Integer maxConcurrent = null;
+        protected long maxSize = 64 * 1024 * 1024;
+        protected int timeout = 30;
+
+        public void maxConcurrent(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        public void maxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public void timeout(int timeout) {
+            this.timeout = timeout;
+        }
+    }
+    
+    private static class LoginAdapter {
+
+        protected int maxSize = 1024;
+        protected int ttl = 60;
+
+        public void maxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public void ttl(int ttl) {
+            this.ttl = ttl;
+        }
+    }
+    
+    private static class SyncAdapter {
+
+        protected Duration retention = Duration.ofDays(30);
+        protected Duration compactionInterval = Duration.ofHours(1);
+
+        public void retention(String retention) {
+            this.retention = Duration.parse(retention);
+        }
+
+        public void compactionInterval(String compactionInterval) {
+            this.compactionInterval = Duration.parse(compactionInterval);
+        }
+    }
+    
+    private static class StreamAdapter {
+
+        protected int heartbeat = 15;
+        protected int maxChanges = 1000;
+
+        public void heartbeat(int heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        public void maxChanges(int maxChanges) {
+            this.maxChanges = maxChanges;
+        }
     }
     
     private static class CalendarAdapter {
         
         protected String timezone = "UTC";
         protected String loginRead = null;
+        protected String loginExport = "never";
+        protected Period past = null;
+        protected Period future = null;
 
         public void timezone(String timezone) {
             this.timezone = timezone;
         }
 
+        public void past(String past) {
+            this.past = Period.parse(past);
+            if (this.past.isNegative()) throw new IllegalStateException("Negative time window: " + past);
+        }
+
+        public void future(String future) {
+            this.future = Period.parse(future);
+            if (this.future.isNegative()) throw new IllegalStateException("Negative time window: " + future);
+        }
+
         public void loginRead(String loginRead) {
             this.loginRead = loginRead;
         }
+
+        public void loginExport(String loginExport) {
+            this.loginExport = loginExport;
+        }
     }
     
     private static class StoredCalendarAdapter extends CalendarAdapter {
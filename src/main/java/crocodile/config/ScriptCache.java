@@ -0,0 +1,151 @@
+package crocodile.config;
+
+import groovy.lang.GroovySystem;
+import groovy.util.DelegatingScript;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Stores the bytecode of compiled config scripts keyed by the hash of the script and the groovy version, so the
+// groovy compiler is not needed when the server is started again with the same config.
+class ScriptCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScriptCache.class);
+
+    private static final int MAGIC = 0x43524f43; // CROC
+    private static final String SCRIPT_NAME = "CrocodileConfig";
+
+    private final Path directory;
+
+    public ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public DelegatingScript load(String script, CompilerConfiguration compilerConfig) throws IOException {
+        Path file = this.directory.resolve(hash(script) + ".classes");
+        Map<String, byte[]> classes = null;
+        try {
+            classes = read(file);
+        } catch (NoSuchFileException e) {
+            //
+        } catch (IOException e) {
+            logger.warn("Discarding unreadable compiled config {}.", file, e);
+        }
+        if (classes == null) {
+            classes = compile(script, compilerConfig);
+            write(file, classes);
+        }
+        ClassLoader loader = new BytecodeLoader(ScriptCache.class.getClassLoader(), classes);
+        try {
+            Class<?> cls = loader.loadClass(SCRIPT_NAME);
+            return (DelegatingScript) cls.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Failed to load compiled config " + file, e);
+        }
+    }
+
+    private static Map<String, byte[]> compile(String script, CompilerConfiguration compilerConfig) {
+        CompilationUnit unit = new CompilationUnit(compilerConfig);
+        unit.addSource(SCRIPT_NAME + ".groovy", script);
+        unit.compile(Phases.CLASS_GENERATION);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (GroovyClass cls : unit.getClasses()) {
+            classes.put(cls.getName(), cls.getBytes());
+        }
+        return classes;
+    }
+
+    private static Map<String, byte[]> read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC) throw new IOException("Not a compiled config");
+            int count = data.readInt();
+            if (count <= 0) throw new IOException("Invalid class count");
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = data.readUTF();
+                int length = data.readInt();
+                if (length <= 0) throw new IOException("Invalid class size");
+                byte[] bytes = new byte[length];
+                data.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            if (!classes.containsKey(SCRIPT_NAME)) throw new IOException("Script class missing");
+            return classes;
+        }
+    }
+
+    // Written to a temporary file first, so other instances never read a partial file
+    private void write(Path file, Map<String, byte[]> classes) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(this.directory);
+            tmp = Files.createTempFile(this.directory, SCRIPT_NAME, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp); DataOutputStream data = new DataOutputStream(out)) {
+                data.writeInt(MAGIC);
+                data.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    data.writeUTF(entry.getKey());
+                    data.writeInt(entry.getValue().length);
+                    data.write(entry.getValue());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The config still works, it is just compiled again on the next start
+            logger.warn("Failed to cache compiled config in {}.", this.directory, e);
+            try {
+                if (tmp != null) Files.deleteIfExists(tmp);
+            } catch (IOException ex) {
+                //
+            }
+        }
+    }
+
+    private static String hash(String script) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(GroovySystem.getVersion().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(script.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    private static class BytecodeLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        private BytecodeLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = this.classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
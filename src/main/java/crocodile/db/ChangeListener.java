@@ -0,0 +1,16 @@
+package crocodile.db;
+
+@FunctionalInterface
+public interface ChangeListener {
+    
+    void changed(String calendar);
+
+    // Changes made by other instances can't be seen until restored is called
+    default void lost() {
+        //
+    }
+
+    default void restored() {
+        //
+    }
+}
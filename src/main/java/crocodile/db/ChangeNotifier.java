@@ -0,0 +1,129 @@
+package crocodile.db;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// Keeps a dedicated connection that listens for changes made by other instances. While that connection is
+// down, listeners are told that changes may be missed, so nothing stale is served for longer than one heartbeat.
+public class ChangeNotifier implements AutoCloseable {
+
+    public static final String CHANNEL = "crocodile_changes";
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChangeNotifier.class);
+
+    private final NotifyConfig config;
+    private final ConnectionPool.ConnectionFactory factory;
+    private final ChangeListener listener;
+    private final AtomicLong lastLag;
+    private final LongAccumulator maxLag;
+    private volatile boolean closed;
+    private volatile Thread thread;
+
+    public ChangeNotifier(NotifyConfig config, ConnectionPool.ConnectionFactory factory, ChangeListener listener) {
+        this.config = config;
+        this.factory = factory;
+        this.listener = listener;
+        this.lastLag = new AtomicLong(0);
+        this.maxLag = new LongAccumulator(Long::max, 0);
+        this.closed = false;
+        this.thread = null;
+    }
+
+    // Sends a notification that is delivered to all instances once the transaction commits
+    public static void publish(Connection connection, String calendar) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT pg_notify(?, ?);")) {
+            stmt.setString(1, CHANNEL);
+            stmt.setString(2, System.currentTimeMillis() + ":" + calendar);
+            stmt.execute();
+        }
+    }
+
+    public void start() {
+        if (this.thread != null) return;
+        this.thread = Thread.ofPlatform().name("change-notifier").daemon().start(this::run);
+    }
+
+    // Milliseconds between sending and receiving the last notification, includes clock skew between instances
+    public long lastLag() {
+        return this.lastLag.get();
+    }
+
+    public long maxLag() {
+        return this.maxLag.get();
+    }
+
+    private void run() {
+        // Nothing is known about other instances until the first connection is established
+        this.listener.lost();
+        while (!this.closed) {
+            try (Connection connection = this.factory.create(); Statement stmt = connection.createStatement()) {
+                stmt.execute("LISTEN " + CHANNEL + ";");
+                this.listener.restored();
+                try {
+                    this.listen(connection.unwrap(PGConnection.class), stmt);
+                } finally {
+                    this.listener.lost();
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!this.closed) logger.warn("Lost change notifications, reconnecting.", e);
+            }
+            if (this.closed) return;
+            try {
+                Thread.sleep(this.config.reconnectDelay());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void listen(PGConnection connection, Statement stmt) throws SQLException {
+        long heartbeatNanos = this.config.heartbeat().toNanos();
+        long lastHeartbeat = System.nanoTime();
+        while (!this.closed) {
+            PGNotification[] notifications = connection.getNotifications((int) Math.max(1, this.config.heartbeat().toMillis()));
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    this.received(notification.getParameter());
+                }
+            }
+            // A broken connection does not necessarily fail while waiting for notifications
+            if (System.nanoTime() - lastHeartbeat >= heartbeatNanos) {
+                stmt.setQueryTimeout((int) Math.max(1, this.config.heartbeat().toSeconds()));
+                stmt.execute("SELECT 1;");
+                lastHeartbeat = System.nanoTime();
+            }
+        }
+    }
+
+    private void received(String payload) {
+        int sep = payload.indexOf(':');
+        if (sep < 0) return;
+        try {
+            long lag = Math.max(0, System.currentTimeMillis() - Long.parseLong(payload.substring(0, sep)));
+            this.lastLag.set(lag);
+            this.maxLag.accumulate(lag);
+            if (lag > this.config.heartbeat().toMillis()) {
+                logger.warn("Change notification arrived after {}ms.", lag);
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        this.listener.changed(payload.substring(sep + 1));
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        Thread thread = this.thread;
+        if (thread != null) thread.interrupt();
+    }
+}
@@ -0,0 +1,184 @@
+package crocodile.db;
+
+import crocodile.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Only uses java.util.concurrent primitives, so waiting for a connection never pins a virtual thread.
+public class ConnectionPool implements AutoCloseable {
+
+    // Connections that were idle for less than this are not validated when handed out again.
+    private static final long VALIDATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final PoolConfig config;
+    private final ConnectionFactory factory;
+    private final Semaphore permits;
+    private final Deque<Idle> idle;
+    // Idle and leased connections
+    private final AtomicInteger open;
+    private final AtomicBoolean replenishing;
+    private volatile boolean closed;
+
+    public ConnectionPool(PoolConfig config, ConnectionFactory factory) {
+        this.config = config;
+        this.factory = factory;
+        this.permits = new Semaphore(config.maxSize(), true);
+        this.idle = new ConcurrentLinkedDeque<>();
+        this.open = new AtomicInteger(0);
+        this.replenishing = new AtomicBoolean(false);
+        this.closed = false;
+    }
+
+    public void fill() throws SQLException {
+        while (!this.closed && this.open.get() < this.config.minSize()) {
+            this.idle.addLast(new Idle(this.create(), System.nanoTime()));
+        }
+    }
+
+    // Opens new connections in the background after broken ones were discarded, so the pool does not shrink below
+    // its minimum size. Failures are ignored, the next discarded connection tries again.
+    private void replenish() {
+        if (this.closed || this.open.get() >= this.config.minSize() || !this.replenishing.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("pool-replenish").start(() -> {
+            try {
+                this.fill();
+            } catch (SQLException e) {
+                //
+            } finally {
+                this.replenishing.set(false);
+            }
+            if (this.closed) this.drain();
+        });
+    }
+
+    public Lease acquire() throws SQLException {
+        if (this.closed) throw new SQLException("connection pool closed");
+        long start = System.nanoTime();
+        try {
+            if (!this.permits.tryAcquire(this.config.timeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException("timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("interrupted while waiting for a database connection", e);
+        }
+        try {
+            return new Lease(this.take());
+        } catch (SQLException | RuntimeException e) {
+            this.permits.release();
+            throw e;
+        } finally {
+            Metrics.poolWait().record(System.nanoTime() - start);
+        }
+    }
+
+    private Connection take() throws SQLException {
+        Idle entry;
+        while ((entry = this.idle.pollFirst()) != null) {
+            if (System.nanoTime() - entry.since() < VALIDATION_INTERVAL_NANOS || this.isValid(entry.connection())) {
+                return entry.connection();
+            }
+            this.discard(entry.connection());
+        }
+        return this.create();
+    }
+
+    private Connection create() throws SQLException {
+        Connection connection = this.factory.create();
+        this.open.incrementAndGet();
+        return connection;
+    }
+
+    private void discard(Connection connection) {
+        closeQuietly(connection);
+        this.open.decrementAndGet();
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(Math.max(1, (int) this.config.validationTimeout().toSeconds()));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Connection connection) {
+        boolean discarded = false;
+        try {
+            if (this.closed || connection.isClosed()) {
+                this.discard(connection);
+                discarded = true;
+            } else {
+                // Make sure no transaction is left open on idle connections
+                connection.rollback();
+                this.idle.addFirst(new Idle(connection, System.nanoTime()));
+            }
+        } catch (SQLException e) {
+            this.discard(connection);
+            discarded = true;
+        } finally {
+            this.permits.release();
+        }
+        if (this.closed) this.drain();
+        else if (discarded) this.replenish();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.drain();
+    }
+
+    private void drain() {
+        Idle entry;
+        while ((entry = this.idle.pollFirst()) != null) {
+            this.discard(entry.connection());
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //
+        }
+    }
+
+    private record Idle(Connection connection, long since) {}
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    public final class Lease implements AutoCloseable {
+
+        private final Connection connection;
+        private boolean released;
+
+        private Lease(Connection connection) {
+            this.connection = connection;
+            this.released = false;
+        }
+
+        public Connection connection() {
+            return this.connection;
+        }
+
+        @Override
+        public void close() {
+            if (!this.released) {
+                this.released = true;
+                ConnectionPool.this.release(this.connection);
+            }
+        }
+    }
+}
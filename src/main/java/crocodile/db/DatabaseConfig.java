@@ -1,6 +1,11 @@
 package crocodile.db;
 
 import javax.annotation.Nullable;
+import java.nio.file.Path;
 
-public record DatabaseConfig(String host, int port, @Nullable String user, @Nullable String password) {
+public record DatabaseConfig(Engine engine, @Nullable String host, int port, @Nullable String user, @Nullable String password, int prepareThreshold, int statementCacheSize, PoolConfig pool, NotifyConfig notifications, GroupCommitConfig groupCommit, @Nullable Path path) {
+    
+    public enum Engine {
+        POSTGRES, EMBEDDED
+    }
 }
@@ -0,0 +1,750 @@
+package crocodile.db;
+
+import crocodile.metrics.Metrics;
+import crocodile.model.CalendarVersion;
+import crocodile.model.Changes;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.EventJson;
+import crocodile.model.StoredCalendar;
+import crocodile.model.SyncToken;
+import crocodile.model.TimeWindow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Keeps all events in memory and writes every change to an append-only log before it becomes visible. The log is
+// replayed on startup and rewritten from the current state once most of it consists of outdated records.
+// Only one instance can use a database directory at a time.
+public class EmbeddedDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedDatabase.class);
+
+    private static final String LOG_FILE = "events.log";
+    private static final String LOCK_FILE = "lock";
+    private static final int WRITE_BUFFER_SIZE = 65536;
+    private static final long MIN_REWRITE_ENTRIES = 1024;
+    // The order PostgreSQL uses for uuids, so both backends return events in the same order
+    private static final Comparator<UUID> UID_ORDER = Comparator.comparing(UUID::getMostSignificantBits, Long::compareUnsigned).thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+    private static final Comparator<Event> EVENT_ORDER = Comparator.comparing(Event::uid, UID_ORDER);
+    private static final Metrics.DatabaseMetrics QUERY_METRICS = Metrics.database("query");
+    private static final Metrics.DatabaseMetrics STREAM_METRICS = Metrics.database("stream");
+    private static final Metrics.DatabaseMetrics STREAM_PAGE_METRICS = Metrics.database("streamPage");
+    private static final Metrics.DatabaseMetrics EXPORT_JSON_METRICS = Metrics.database("exportJson");
+    private static final Metrics.DatabaseMetrics EXPORT_EVENTS_METRICS = Metrics.database("exportEvents");
+    private static final Metrics.DatabaseMetrics QUERY_EVENT_METRICS = Metrics.database("queryEvent");
+    private static final Metrics.DatabaseMetrics VERSION_METRICS = Metrics.database("version");
+    private static final Metrics.DatabaseMetrics SYNC_TOKEN_METRICS = Metrics.database("syncToken");
+    private static final Metrics.DatabaseMetrics CHANGES_METRICS = Metrics.database("changes");
+    private static final Metrics.DatabaseMetrics COMPACT_METRICS = Metrics.database("compactTombstones");
+    private static final Metrics.DatabaseMetrics INSERT_METRICS = Metrics.database("insert");
+    private static final Metrics.DatabaseMetrics INSERT_BATCH_METRICS = Metrics.database("insertBatch");
+    private static final Metrics.DatabaseMetrics IMPORT_METRICS = Metrics.database("importEvents");
+    private static final Metrics.DatabaseMetrics UPDATE_METRICS = Metrics.database("update");
+    private static final Metrics.DatabaseMetrics DELETE_METRICS = Metrics.database("delete");
+    private static final Metrics.DatabaseMetrics CLEAR_METRICS = Metrics.database("clear");
+
+    public static EmbeddedDatabase open(DatabaseConfig config) throws SQLException {
+        Path directory = Objects.requireNonNull(config.path(), "No database path");
+        FileChannel lockChannel = null;
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            @Nullable FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) throw new SQLException("Database is used by another instance: " + directory);
+            Store store = new Store();
+            EventLog log = EventLog.open(directory.resolve(LOG_FILE), store::apply);
+            logger.info("Loaded {} events from {}.", store.owners.size(), directory);
+            EmbeddedDatabase database = new EmbeddedDatabase(store, log, lockChannel);
+            try {
+                database.rewriteIfNeeded();
+            } catch (SQLException e) {
+                log.close();
+                throw e;
+            }
+            return database;
+        } catch (IOException e) {
+            closeQuietly(lockChannel);
+            throw new SQLException("Failed to open database: " + directory, e);
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(lockChannel);
+            throw e;
+        }
+    }
+
+    private final Store store;
+    private final EventLog log;
+    private final FileChannel lockChannel;
+    private final ReentrantReadWriteLock lock;
+    private final List<ChangeListener> listeners;
+
+    private EmbeddedDatabase(Store store, EventLog log, FileChannel lockChannel) {
+        this.store = store;
+        this.log = log;
+        this.lockChannel = lockChannel;
+        this.lock = new ReentrantReadWriteLock();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public void addListener(ChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void listen() {
+        // Other instances can't use the same database
+    }
+
+    @Override
+    public List<Event> query(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<Event> events = this.snapshot(calendar, TimeWindow.ALL);
+            QUERY_METRICS.rows(events.size());
+            return Collections.unmodifiableList(events);
+        } finally {
+            QUERY_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // The events are copied while the lock is held, so slow clients don't block writers
+    @Override
+    public void stream(ConfiguredCalendar calendar, TimeWindow window, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<Event> events = this.snapshot(calendar, window);
+            for (Event event : events) {
+                sink.accept(event);
+            }
+            STREAM_METRICS.rows(events.size());
+        } finally {
+            STREAM_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void streamPage(ConfiguredCalendar calendar, TimeWindow window, @Nullable UUID after, int limit, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<Event> events = this.snapshot(calendar, window, after, limit);
+            for (Event event : events) {
+                sink.accept(event);
+            }
+            STREAM_PAGE_METRICS.rows(events.size());
+        } finally {
+            STREAM_PAGE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long exportJson(ConfiguredCalendar calendar, OutputStream out) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<Event> events = this.snapshot(calendar, TimeWindow.ALL);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+            for (Event event : events) {
+                writer.write(EventJson.toJson(event).toString());
+                writer.write('\n');
+            }
+            writer.flush();
+            EXPORT_JSON_METRICS.rows(events.size());
+            return events.size();
+        } finally {
+            EXPORT_JSON_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long exportEvents(ConfiguredCalendar calendar, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<Event> events = this.snapshot(calendar, TimeWindow.ALL);
+            for (Event event : events) {
+                sink.accept(event);
+            }
+            EXPORT_EVENTS_METRICS.rows(events.size());
+            return events.size();
+        } finally {
+            EXPORT_EVENTS_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    @Nullable
+    public Event query(ConfiguredCalendar calendar, UUID uid) throws SQLException {
+        long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            for (String storedCalendar : calendar.getStoredCalendars()) {
+                @Nullable CalendarData data = this.store.calendars.get(storedCalendar);
+                @Nullable StoredEvent stored = data == null ? null : data.events.get(uid);
+                if (stored != null) {
+                    QUERY_EVENT_METRICS.rows(1);
+                    return stored.event();
+                }
+            }
+            QUERY_EVENT_METRICS.rows(0);
+            return null;
+        } finally {
+            this.lock.readLock().unlock();
+            QUERY_EVENT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public CalendarVersion version(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            List<Long> versions = new ArrayList<>(calendar.getStoredCalendars().size());
+            @Nullable Instant modified = null;
+            @Nullable Instant deleted = null;
+            for (String storedCalendar : calendar.getStoredCalendars()) {
+                @Nullable CalendarData data = this.store.calendars.get(storedCalendar);
+                versions.add(data == null ? 0 : data.version);
+                if (data == null) continue;
+                modified = latest(modified, data.modified);
+                deleted = latest(deleted, data.lastDeleted);
+            }
+            return new CalendarVersion(List.copyOf(versions), modified, deleted);
+        } finally {
+            this.lock.readLock().unlock();
+            VERSION_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public SyncToken syncToken(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            List<Long> versions = new ArrayList<>(calendar.getStoredCalendars().size());
+            for (String storedCalendar : calendar.getStoredCalendars()) {
+                @Nullable CalendarData data = this.store.calendars.get(storedCalendar);
+                versions.add(data == null ? 0 : data.version);
+            }
+            return new SyncToken(List.copyOf(versions));
+        } finally {
+            this.lock.readLock().unlock();
+            SYNC_TOKEN_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Returns null if tombstones needed for the requested token were already compacted
+    @Override
+    @Nullable
+    public Changes changes(ConfiguredCalendar calendar, @Nullable SyncToken since) throws SQLException {
+        long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            if (since != null && since.versions().size() != storedCalendars.size()) return null;
+            List<Long> current = new ArrayList<>(storedCalendars.size());
+            List<Event> events = new ArrayList<>();
+            List<UUID> deleted = new ArrayList<>();
+            for (int i = 0; i < storedCalendars.size(); i++) {
+                @Nullable CalendarData data = this.store.calendars.get(storedCalendars.get(i));
+                long version = data == null ? 0 : data.version;
+                long from = since == null ? -1 : since.versions().get(i);
+                // Tokens ahead of the database don't come from this database
+                if (since != null && (from < (data == null ? 0 : data.compacted) || from > version)) return null;
+                current.add(version);
+                if (data == null) continue;
+                for (StoredEvent stored : data.events.values()) {
+                    if (stored.version() > from) events.add(stored.event());
+                }
+                if (since != null) {
+                    for (Map.Entry<UUID, Deletion> entry : data.tombstones.entrySet()) {
+                        if (entry.getValue().version() > from && !data.events.containsKey(entry.getKey())) deleted.add(entry.getKey());
+                    }
+                }
+            }
+            events.sort(EVENT_ORDER);
+            deleted.sort(UID_ORDER);
+            CHANGES_METRICS.rows(events.size() + deleted.size());
+            return new Changes(new SyncToken(List.copyOf(current)), Collections.unmodifiableList(events), Collections.unmodifiableList(deleted));
+        } finally {
+            this.lock.readLock().unlock();
+            CHANGES_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Drops tombstones of events deleted before the given time and rewrites the log if it mostly contains
+    // outdated records
+    @Override
+    public long compactTombstones(Instant before) throws SQLException {
+        long start = System.nanoTime();
+        this.lock.writeLock().lock();
+        try {
+            long purged = 0;
+            for (CalendarData data : this.store.calendars.values()) {
+                for (Deletion deletion : data.tombstones.values()) {
+                    if (deletion.deleted().isBefore(before)) purged += 1;
+                }
+            }
+            if (purged > 0) this.write(new LogRecord.Compact(before));
+            this.rewriteIfNeeded();
+            return purged;
+        } finally {
+            this.lock.writeLock().unlock();
+            COMPACT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Event insert(StoredCalendar calendar, Event event) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Instant modified = now();
+            Event inserted;
+            this.lock.writeLock().lock();
+            try {
+                inserted = normalize(event, this.store.newUid(), modified);
+                this.write(new LogRecord.Put(calendar.id(), this.store.nextVersion(calendar), List.of(inserted)));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.changed(calendar.id());
+            return inserted;
+        } finally {
+            INSERT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Event> insert(StoredCalendar calendar, List<Event> events) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Instant modified = now();
+            List<Event> insertedEvents = new ArrayList<>(events.size());
+            this.lock.writeLock().lock();
+            try {
+                Set<UUID> uids = new HashSet<>();
+                for (Event event : events) {
+                    UUID uid;
+                    do {
+                        uid = this.store.newUid();
+                    } while (!uids.add(uid));
+                    insertedEvents.add(normalize(event, uid, modified));
+                }
+                this.write(new LogRecord.Put(calendar.id(), this.store.nextVersion(calendar), List.copyOf(insertedEvents)));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            INSERT_BATCH_METRICS.rows(events.size());
+            this.changed(calendar.id());
+            return Collections.unmodifiableList(insertedEvents);
+        } finally {
+            INSERT_BATCH_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // The events are collected before the lock is taken, so a slow upload doesn't block other requests
+    @Override
+    public long importEvents(StoredCalendar calendar, EventSource source) throws SQLException, IOException, ParseException {
+        long start = System.nanoTime();
+        try {
+            Instant imported = now();
+            List<Event> events = new ArrayList<>();
+            source.read(event -> {
+                // Modification times in the future would hide later changes from calendar versions
+                Instant modified = event.modified().isAfter(imported) ? imported : event.modified().truncatedTo(ChronoUnit.MICROS);
+                events.add(normalize(event, event.uid(), modified));
+            });
+            this.lock.writeLock().lock();
+            try {
+                Set<UUID> uids = new HashSet<>();
+                for (Event event : events) {
+                    if (!uids.add(event.uid()) || this.store.owners.containsKey(event.uid())) {
+                        // Same SQLState as a unique violation in PostgreSQL, so the routes handle both the same way
+                        throw new SQLException("Duplicate event uid: " + event.uid(), "23505");
+                    }
+                }
+                this.write(new LogRecord.Put(calendar.id(), this.store.nextVersion(calendar), List.copyOf(events)));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            IMPORT_METRICS.rows(events.size());
+            this.changed(calendar.id());
+            return events.size();
+        } finally {
+            IMPORT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Event update(StoredCalendar calendar, Event event) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Event updated = normalize(event, event.uid(), now());
+            this.lock.writeLock().lock();
+            try {
+                @Nullable CalendarData data = this.store.calendars.get(calendar.id());
+                boolean exists = data != null && data.events.containsKey(event.uid());
+                // Like an UPDATE that matches no row, the calendar version is still increased
+                this.write(new LogRecord.Put(calendar.id(), this.store.nextVersion(calendar), exists ? List.of(updated) : List.of()));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.changed(calendar.id());
+            return updated;
+        } finally {
+            UPDATE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void delete(StoredCalendar calendar, UUID uid) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            this.lock.writeLock().lock();
+            try {
+                this.write(new LogRecord.Delete(calendar.id(), this.store.nextVersion(calendar), uid, now()));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.changed(calendar.id());
+        } finally {
+            DELETE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void clear(StoredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            this.lock.writeLock().lock();
+            try {
+                this.write(new LogRecord.Clear(calendar.id(), this.store.nextVersion(calendar), now()));
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.changed(calendar.id());
+        } finally {
+            CLEAR_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Must be called with the write lock held. The record is only applied once it is on disk.
+    private void write(LogRecord record) throws SQLException {
+        try {
+            this.log.append(record);
+        } catch (IOException e) {
+            throw new SQLException("Failed to write to the database log", e);
+        }
+        this.store.apply(record);
+    }
+
+    private void rewriteIfNeeded() throws SQLException {
+        long live = this.store.liveEntries();
+        if (this.store.logEntries <= Math.max(MIN_REWRITE_ENTRIES, 2 * live)) return;
+        try {
+            this.log.rewrite(this.store.snapshot());
+            logger.info("Rewrote database log with {} entries, {} bytes.", live, this.log.size());
+        } catch (IOException e) {
+            throw new SQLException("Failed to rewrite the database log", e);
+        }
+        this.store.logEntries = live;
+    }
+
+    private List<Event> snapshot(ConfiguredCalendar calendar, TimeWindow window) {
+        return this.snapshot(calendar, window, null, Integer.MAX_VALUE);
+    }
+
+    private List<Event> snapshot(ConfiguredCalendar calendar, TimeWindow window, @Nullable UUID after, int limit) {
+        this.lock.readLock().lock();
+        try {
+            List<Event> events = new ArrayList<>();
+            for (String storedCalendar : calendar.getStoredCalendars()) {
+                @Nullable CalendarData data = this.store.calendars.get(storedCalendar);
+                if (data == null) continue;
+                // No calendar can contribute more than limit events to the page
+                int added = 0;
+                for (StoredEvent stored : (after == null ? data.events : data.events.tailMap(after, false)).values()) {
+                    if (added >= limit) break;
+                    if (window == TimeWindow.ALL || overlaps(stored.event(), window)) {
+                        events.add(stored.event());
+                        added += 1;
+                    }
+                }
+            }
+            // Events of a single calendar are already ordered by uid
+            if (calendar.getStoredCalendars().size() > 1) {
+                events.sort(EVENT_ORDER);
+                if (events.size() > limit) return new ArrayList<>(events.subList(0, limit));
+            }
+            return events;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void changed(String calendar) {
+        for (ChangeListener listener : this.listeners) {
+            listener.changed(calendar);
+        }
+    }
+
+    // Compares by dates in UTC like the PostgreSQL backend does
+    private static boolean overlaps(Event event, TimeWindow window) {
+        LocalDate start;
+        LocalDate end;
+        if (event.times() instanceof Event.Timed timed) {
+            start = LocalDate.ofInstant(timed.start(), ZoneOffset.UTC);
+            end = LocalDate.ofInstant(timed.end(), ZoneOffset.UTC);
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            start = allDay.start();
+            end = allDay.end();
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+        return !end.isBefore(window.from()) && !start.isAfter(window.to());
+    }
+
+    // Stores events with the same precision as the PostgreSQL backend
+    private static Event normalize(Event event, UUID uid, Instant modified) {
+        Event.Times times = event.times();
+        if (times instanceof Event.Timed timed) {
+            times = new Event.Timed(timed.start().truncatedTo(ChronoUnit.SECONDS), timed.end().truncatedTo(ChronoUnit.SECONDS));
+        }
+        return new Event(uid, event.title(), modified, event.description(), event.location(), event.url(), times);
+    }
+
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    @Nullable
+    private static Instant latest(@Nullable Instant a, @Nullable Instant b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static void closeQuietly(@Nullable FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.lock.writeLock().lock();
+        try {
+            this.log.close();
+        } finally {
+            this.lock.writeLock().unlock();
+            // Closing the channel releases the lock on the directory
+            this.lockChannel.close();
+        }
+    }
+
+    // The state of all calendars, only accessed with the lock of the database held
+    private static class Store {
+
+        private final Map<String, CalendarData> calendars = new HashMap<>();
+        // Event uids are unique across calendars, just like in the PostgreSQL backend
+        private final Map<UUID, String> owners = new HashMap<>();
+        private long logEntries = 0;
+
+        private CalendarData data(String calendar) {
+            return this.calendars.computeIfAbsent(calendar, k -> new CalendarData());
+        }
+
+        private long nextVersion(StoredCalendar calendar) {
+            @Nullable CalendarData data = this.calendars.get(calendar.id());
+            return (data == null ? 0 : data.version) + 1;
+        }
+
+        private UUID newUid() {
+            UUID uid;
+            do {
+                uid = UUID.randomUUID();
+            } while (this.owners.containsKey(uid));
+            return uid;
+        }
+
+        private void apply(LogRecord record) {
+            switch (record) {
+                case LogRecord.Put put -> {
+                    CalendarData data = this.data(put.calendar());
+                    data.version = put.version();
+                    for (Event event : put.events()) {
+                        this.put(put.calendar(), data, event, put.version());
+                    }
+                    this.logEntries += Math.max(1, put.events().size());
+                }
+                case LogRecord.Delete delete -> {
+                    CalendarData data = this.data(delete.calendar());
+                    data.version = delete.version();
+                    if (data.remove(delete.uid())) {
+                        this.owners.remove(delete.uid());
+                        data.tombstones.put(delete.uid(), new Deletion(delete.version(), delete.deleted()));
+                        data.deletions += 1;
+                        data.lastDeleted = delete.deleted();
+                    }
+                    this.logEntries += 1;
+                }
+                case LogRecord.Clear clear -> {
+                    CalendarData data = this.data(clear.calendar());
+                    data.version = clear.version();
+                    if (!data.events.isEmpty()) {
+                        for (UUID uid : data.events.keySet()) {
+                            this.owners.remove(uid);
+                            data.tombstones.put(uid, new Deletion(clear.version(), clear.deleted()));
+                        }
+                        data.clear();
+                        data.deletions += 1;
+                        data.lastDeleted = clear.deleted();
+                    }
+                    this.logEntries += 1;
+                }
+                case LogRecord.Compact compact -> {
+                    for (CalendarData data : this.calendars.values()) {
+                        data.tombstones.values().removeIf(deletion -> {
+                            if (!deletion.deleted().isBefore(compact.before())) return false;
+                            data.compacted = Math.max(data.compacted, deletion.version());
+                            return true;
+                        });
+                    }
+                    this.logEntries += 1;
+                }
+                case LogRecord.State state -> {
+                    CalendarData data = this.data(state.calendar());
+                    data.version = state.version();
+                    data.deletions = state.deletions();
+                    data.lastDeleted = state.lastDeleted();
+                    data.compacted = state.compacted();
+                    this.logEntries += 1;
+                }
+                case LogRecord.Stored stored -> {
+                    CalendarData data = this.data(stored.calendar());
+                    this.put(stored.calendar(), data, stored.event(), stored.version());
+                    this.logEntries += 1;
+                }
+                case LogRecord.Tombstone tombstone -> {
+                    this.data(tombstone.calendar()).tombstones.put(tombstone.uid(), new Deletion(tombstone.version(), tombstone.deleted()));
+                    this.logEntries += 1;
+                }
+            }
+        }
+
+        private void put(String calendar, CalendarData data, Event event, long version) {
+            @Nullable String owner = this.owners.put(event.uid(), calendar);
+            if (owner != null && !owner.equals(calendar)) {
+                @Nullable CalendarData previous = this.calendars.get(owner);
+                if (previous != null) previous.remove(event.uid());
+            }
+            data.put(new StoredEvent(event, version));
+        }
+
+        private long liveEntries() {
+            long entries = 0;
+            for (CalendarData data : this.calendars.values()) {
+                entries += 1 + data.events.size() + data.tombstones.size();
+            }
+            return entries;
+        }
+
+        private List<LogRecord> snapshot() {
+            List<LogRecord> records = new ArrayList<>();
+            for (Map.Entry<String, CalendarData> entry : this.calendars.entrySet()) {
+                CalendarData data = entry.getValue();
+                records.add(new LogRecord.State(entry.getKey(), data.version, data.deletions, data.lastDeleted, data.compacted));
+                for (StoredEvent stored : data.events.values()) {
+                    records.add(new LogRecord.Stored(entry.getKey(), stored.version(), stored.event()));
+                }
+                for (Map.Entry<UUID, Deletion> tombstone : data.tombstones.entrySet()) {
+                    records.add(new LogRecord.Tombstone(entry.getKey(), tombstone.getKey(), tombstone.getValue().version(), tombstone.getValue().deleted()));
+                }
+            }
+            return records;
+        }
+    }
+
+    private static class CalendarData {
+
+        private final TreeMap<UUID, StoredEvent> events = new TreeMap<>(UID_ORDER);
+        private final Map<UUID, Deletion> tombstones = new HashMap<>();
+        private long version = 0;
+        private long deletions = 0;
+        private long compacted = 0;
+        @Nullable private Instant lastDeleted = null;
+        // The latest modification time of all events. It is only computed again from all events if the event
+        // that held it is removed or replaced by an older one.
+        @Nullable private Instant modified = null;
+
+        private void put(StoredEvent stored) {
+            @Nullable StoredEvent previous = this.events.put(stored.event().uid(), stored);
+            @Nullable Instant current = this.modified;
+            this.modified = latest(current, stored.event().modified());
+            if (previous != null && previous.event().modified().equals(current) && stored.event().modified().isBefore(current)) {
+                this.updateModified();
+            }
+        }
+
+        private boolean remove(UUID uid) {
+            @Nullable StoredEvent removed = this.events.remove(uid);
+            if (removed == null) return false;
+            if (removed.event().modified().equals(this.modified)) this.updateModified();
+            return true;
+        }
+
+        private void clear() {
+            this.events.clear();
+            this.modified = null;
+        }
+
+        private void updateModified() {
+            this.modified = null;
+            for (StoredEvent stored : this.events.values()) {
+                this.modified = latest(this.modified, stored.event().modified());
+            }
+        }
+    }
+
+    private record StoredEvent(Event event, long version) {}
+
+    private record Deletion(long version, Instant deleted) {}
+}
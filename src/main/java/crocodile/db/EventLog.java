@@ -0,0 +1,223 @@
+package crocodile.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.util.zip.CRC32C;
+
+// An append-only file of log records. Every record is framed with its length and checksum and forced to disk
+// before append returns. A record at the end of the file that was only partially written when the process crashed
+// is cut off on open. Damaged records before the end fail the open, as cutting them off would lose later records.
+class EventLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLog.class);
+
+    private static final long MAGIC = 0x43524f434c4f4731L; // CROCLOG1
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 30;
+
+    private final Path file;
+    private FileChannel channel;
+    private long size;
+
+    private EventLog(Path file, FileChannel channel, long size) {
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    public static EventLog open(Path file, RecordHandler handler) throws IOException {
+        Files.deleteIfExists(tmpFile(file));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                // New file or crash while it was created
+                channel.truncate(0);
+                writeFully(channel, ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).flip(), 0);
+                channel.force(true);
+                return new EventLog(file, channel, HEADER_SIZE);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.flip().getLong() != MAGIC) throw new IOException("Not a Crocodile database: " + file);
+            long valid = replay(file, channel, handler);
+            if (valid < channel.size()) {
+                logger.warn("Discarding {} bytes of incomplete log records in {}.", channel.size() - valid, file);
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            return new EventLog(file, channel, valid);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns the end of the last complete record
+    private static long replay(Path file, FileChannel channel, RecordHandler handler) throws IOException {
+        long position = HEADER_SIZE;
+        long fileSize = channel.size();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        CRC32C crc = new CRC32C();
+        while (position + FRAME_SIZE <= fileSize) {
+            frame.clear();
+            readFully(channel, frame, position);
+            int length = frame.flip().getInt();
+            int checksum = frame.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE) {
+                // Space the filesystem allocated for a record that was never written is read as zeros
+                if (zeros(channel, position, fileSize)) break;
+                throw corrupt(file, position, "invalid record length " + length);
+            }
+            if (position + FRAME_SIZE + length > fileSize) break;
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(channel, data, position + FRAME_SIZE);
+            crc.reset();
+            crc.update(data.array());
+            if ((int) crc.getValue() != checksum) {
+                if (position + FRAME_SIZE + length == fileSize) break;
+                throw corrupt(file, position, "checksum mismatch");
+            }
+            LogRecord record;
+            try {
+                record = LogRecord.read(new DataInputStream(new ByteArrayInputStream(data.array())));
+            } catch (IOException | DateTimeException e) {
+                IOException ex = corrupt(file, position, "unreadable record");
+                ex.initCause(e);
+                throw ex;
+            }
+            handler.accept(record);
+            position += FRAME_SIZE + length;
+        }
+        return position;
+    }
+
+    private static boolean zeros(FileChannel channel, long position, long fileSize) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(8192, fileSize - position));
+        long offset = position;
+        while (offset < fileSize) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), fileSize - offset));
+            readFully(channel, buffer, offset);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (buffer.get() != 0) return false;
+            }
+            offset += buffer.limit();
+        }
+        return true;
+    }
+
+    private static IOException corrupt(Path file, long position, String reason) {
+        return new IOException("Corrupt log record at offset " + position + " in " + file + ": " + reason);
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public void append(LogRecord record) throws IOException {
+        ByteBuffer buffer = frame(record);
+        try {
+            writeFully(this.channel, buffer, this.size);
+            this.channel.force(false);
+        } catch (IOException e) {
+            // Remove what was written, later records overwrite it anyway as they are written at the current size
+            try {
+                this.channel.truncate(this.size);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+        this.size += buffer.limit();
+    }
+
+    // Replaces the whole log with the given records. The new log is written next to the old one and moved over it,
+    // so a crash leaves either the old or the new log behind.
+    public void rewrite(Iterable<? extends LogRecord> records) throws IOException {
+        Path tmp = tmpFile(this.file);
+        long newSize;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).flip(), 0);
+            newSize = HEADER_SIZE;
+            for (LogRecord record : records) {
+                ByteBuffer buffer = frame(record);
+                writeFully(out, buffer, newSize);
+                newSize += buffer.limit();
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(this.file.toAbsolutePath().getParent());
+        this.channel.close();
+        this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = newSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static ByteBuffer frame(LogRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        record.write(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+        if (data.length > MAX_RECORD_SIZE) throw new IOException("Log record too large");
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return ByteBuffer.allocate(FRAME_SIZE + data.length).putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        buffer.rewind();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) throw new IOException("Unexpected end of log");
+            offset += read;
+        }
+    }
+
+    // Makes the rename durable, not supported on every platform
+    private static void forceDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private static Path tmpFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    @FunctionalInterface
+    public interface RecordHandler {
+
+        void accept(LogRecord record) throws IOException;
+    }
+}
@@ -0,0 +1,11 @@
+package crocodile.db;
+
+import crocodile.model.Event;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface EventSink {
+    
+    void accept(Event event) throws IOException;
+}
@@ -0,0 +1,10 @@
+package crocodile.db;
+
+import java.io.IOException;
+import java.text.ParseException;
+
+@FunctionalInterface
+public interface EventSource {
+    
+    void read(EventSink sink) throws IOException, ParseException;
+}
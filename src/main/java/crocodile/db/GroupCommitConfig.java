@@ -0,0 +1,6 @@
+package crocodile.db;
+
+import java.time.Duration;
+
+public record GroupCommitConfig(boolean enabled, Duration window, int maxBatch) {
+}
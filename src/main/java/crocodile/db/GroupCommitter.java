@@ -0,0 +1,159 @@
+package crocodile.db;
+
+import crocodile.metrics.Histogram;
+import crocodile.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Runs the writes of concurrent requests in a shared transaction, so they wait for a single commit instead of
+// one each. Every write runs inside its own savepoint, a failing write is rolled back without affecting the
+// others. Callers return once the transaction that contains their write has committed.
+public class GroupCommitter implements AutoCloseable {
+
+    private static final Histogram BATCH_SIZE = Metrics.commitBatch();
+
+    private final GroupCommitConfig config;
+    private final ConnectionPool pool;
+    private final CalendarAction publish;
+    private final Consumer<String> changed;
+    private final BlockingQueue<Task<?>> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public GroupCommitter(GroupCommitConfig config, ConnectionPool pool, CalendarAction publish, Consumer<String> changed) {
+        this.config = config;
+        this.pool = pool;
+        this.publish = publish;
+        this.changed = changed;
+        this.queue = new LinkedBlockingQueue<>();
+        this.closed = false;
+        this.thread = Thread.ofPlatform().name("group-commit").daemon().start(this::run);
+    }
+
+    public <T> T submit(String calendar, Write<T> write) throws SQLException {
+        Task<T> task = new Task<>(calendar, write, new CompletableFuture<>());
+        if (this.closed) throw new SQLException("Database closed");
+        this.queue.add(task);
+        // The queue is drained after the thread stopped, so no task is left behind
+        if (this.closed && this.queue.remove(task)) throw new SQLException("Database closed");
+        try {
+            return task.result().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException ex) throw ex;
+            if (e.getCause() instanceof RuntimeException ex) throw ex;
+            throw new SQLException("Write failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // The write might still be committed
+            throw new SQLException("Interrupted while waiting for commit", e);
+        }
+    }
+
+    private void run() {
+        List<Task<?>> batch = new ArrayList<>(this.config.maxBatch());
+        while (!this.closed) {
+            try {
+                batch.add(this.queue.take());
+                long deadline = System.nanoTime() + this.config.window().toNanos();
+                while (batch.size() < this.config.maxBatch()) {
+                    long remaining = deadline - System.nanoTime();
+                    Task<?> next = remaining > 0 ? this.queue.poll(remaining, TimeUnit.NANOSECONDS) : this.queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) continue;
+            }
+            this.flush(batch);
+            batch.clear();
+        }
+        List<Task<?>> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        for (Task<?> task : remaining) {
+            task.result().completeExceptionally(new SQLException("Database closed"));
+        }
+    }
+
+    private void flush(List<Task<?>> batch) {
+        BATCH_SIZE.record(batch.size());
+        List<Task<?>> succeeded = new ArrayList<>(batch.size());
+        List<Object> results = new ArrayList<>(batch.size());
+        try (ConnectionPool.Lease lease = this.pool.acquire()) {
+            Connection connection = lease.connection();
+            try {
+                for (Task<?> task : batch) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        results.add(task.write().apply(connection));
+                        connection.releaseSavepoint(savepoint);
+                        succeeded.add(task);
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback(savepoint);
+                        task.result().completeExceptionally(e);
+                    }
+                }
+                Set<String> calendars = new LinkedHashSet<>();
+                for (Task<?> task : succeeded) {
+                    calendars.add(task.calendar());
+                }
+                for (String calendar : calendars) {
+                    this.publish.accept(connection, calendar);
+                }
+                connection.commit();
+                for (String calendar : calendars) {
+                    this.changed.accept(calendar);
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (Task<?> task : batch) {
+                task.result().completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < succeeded.size(); i++) {
+            complete(succeeded.get(i), results.get(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void complete(Task<T> task, Object result) {
+        task.result().complete((T) result);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.closed = true;
+        this.thread.interrupt();
+        this.thread.join();
+    }
+
+    @FunctionalInterface
+    public interface Write<T> {
+
+        // Runs the statements of a write without committing
+        T apply(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface CalendarAction {
+
+        void accept(Connection connection, String calendar) throws SQLException;
+    }
+
+    private record Task<T>(String calendar, Write<T> write, CompletableFuture<T> result) {}
+}
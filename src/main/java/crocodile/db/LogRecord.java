@@ -0,0 +1,217 @@
+package crocodile.db;
+
+import crocodile.model.Event;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// The entries of the log written by the embedded database. Put, Delete, Clear and Compact are written for changes,
+// State, Stored and Tombstone restore the state of a calendar when the log is rewritten.
+sealed interface LogRecord {
+
+    byte PUT = 1;
+    byte DELETE = 2;
+    byte CLEAR = 3;
+    byte COMPACT = 4;
+    byte STATE = 5;
+    byte STORED = 6;
+    byte TOMBSTONE = 7;
+
+    void write(DataOutput out) throws IOException;
+
+    // Adds or replaces events, all of them get the same version
+    record Put(String calendar, long version, List<Event> events) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(PUT);
+            writeString(out, this.calendar());
+            out.writeLong(this.version());
+            out.writeInt(this.events().size());
+            for (Event event : this.events()) {
+                writeEvent(out, event);
+            }
+        }
+    }
+
+    record Delete(String calendar, long version, UUID uid, Instant deleted) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(DELETE);
+            writeString(out, this.calendar());
+            out.writeLong(this.version());
+            writeUid(out, this.uid());
+            writeInstant(out, this.deleted());
+        }
+    }
+
+    record Clear(String calendar, long version, Instant deleted) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(CLEAR);
+            writeString(out, this.calendar());
+            out.writeLong(this.version());
+            writeInstant(out, this.deleted());
+        }
+    }
+
+    // Drops all tombstones of events deleted before the given time
+    record Compact(Instant before) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(COMPACT);
+            writeInstant(out, this.before());
+        }
+    }
+
+    record State(String calendar, long version, long deletions, @Nullable Instant lastDeleted, long compacted) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(STATE);
+            writeString(out, this.calendar());
+            out.writeLong(this.version());
+            out.writeLong(this.deletions());
+            out.writeBoolean(this.lastDeleted() != null);
+            if (this.lastDeleted() != null) writeInstant(out, this.lastDeleted());
+            out.writeLong(this.compacted());
+        }
+    }
+
+    record Stored(String calendar, long version, Event event) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(STORED);
+            writeString(out, this.calendar());
+            out.writeLong(this.version());
+            writeEvent(out, this.event());
+        }
+    }
+
+    record Tombstone(String calendar, UUID uid, long version, Instant deleted) implements LogRecord {
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeByte(TOMBSTONE);
+            writeString(out, this.calendar());
+            writeUid(out, this.uid());
+            out.writeLong(this.version());
+            writeInstant(out, this.deleted());
+        }
+    }
+
+    static LogRecord read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case PUT -> {
+                String calendar = readString(in);
+                long version = in.readLong();
+                int count = in.readInt();
+                if (count < 0) throw new IOException("negative event count");
+                List<Event> events = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    events.add(readEvent(in));
+                }
+                yield new Put(calendar, version, List.copyOf(events));
+            }
+            case DELETE -> new Delete(readString(in), in.readLong(), readUid(in), readInstant(in));
+            case CLEAR -> new Clear(readString(in), in.readLong(), readInstant(in));
+            case COMPACT -> new Compact(readInstant(in));
+            case STATE -> new State(readString(in), in.readLong(), in.readLong(), in.readBoolean() ? readInstant(in) : null, in.readLong());
+            case STORED -> new Stored(readString(in), in.readLong(), readEvent(in));
+            case TOMBSTONE -> new Tombstone(readString(in), readUid(in), in.readLong(), readInstant(in));
+            default -> throw new IOException("unknown log record type: " + type);
+        };
+    }
+
+    private static void writeEvent(DataOutput out, Event event) throws IOException {
+        writeUid(out, event.uid());
+        writeString(out, event.title());
+        writeInstant(out, event.modified());
+        writeNullableString(out, event.description());
+        writeNullableString(out, event.location());
+        writeNullableString(out, event.url());
+        if (event.times() instanceof Event.Timed timed) {
+            out.writeBoolean(true);
+            writeInstant(out, timed.start());
+            writeInstant(out, timed.end());
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            out.writeBoolean(false);
+            out.writeLong(allDay.start().toEpochDay());
+            out.writeLong(allDay.end().toEpochDay());
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+    }
+
+    private static Event readEvent(DataInput in) throws IOException {
+        UUID uid = readUid(in);
+        String title = readString(in);
+        Instant modified = readInstant(in);
+        @Nullable String description = readNullableString(in);
+        @Nullable String location = readNullableString(in);
+        @Nullable String url = readNullableString(in);
+        Event.Times times;
+        if (in.readBoolean()) {
+            times = new Event.Timed(readInstant(in), readInstant(in));
+        } else {
+            times = new Event.AllDay(LocalDate.ofEpochDay(in.readLong()), LocalDate.ofEpochDay(in.readLong()));
+        }
+        return new Event(uid, title, modified, description, location, url, times);
+    }
+
+    private static void writeUid(DataOutput out, UUID uid) throws IOException {
+        out.writeLong(uid.getMostSignificantBits());
+        out.writeLong(uid.getLeastSignificantBits());
+    }
+
+    private static UUID readUid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeInstant(DataOutput out, Instant instant) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    // DataOutput.writeUTF is limited to 64K bytes, which is not enough for descriptions
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new IOException("negative string length");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutput out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) writeString(out, value);
+    }
+
+    @Nullable
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? readString(in) : null;
+    }
+}
@@ -0,0 +1,6 @@
+package crocodile.db;
+
+import java.time.Duration;
+
+public record NotifyConfig(boolean enabled, Duration heartbeat, Duration reconnectDelay) {
+}
@@ -0,0 +1,6 @@
+package crocodile.db;
+
+import java.time.Duration;
+
+public record PoolConfig(int minSize, int maxSize, Duration timeout, Duration validationTimeout) {
+}
@@ -0,0 +1,974 @@
+package crocodile.db;
+
+import crocodile.metrics.Metrics;
+import crocodile.model.CalendarVersion;
+import crocodile.model.Changes;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.StoredCalendar;
+import crocodile.model.SyncToken;
+import crocodile.model.TimeWindow;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.*;
+import java.text.ParseException;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+public class PostgresDatabase implements Database {
+    
+    private static final int FETCH_SIZE = 256;
+    private static final int COPY_BUFFER_SIZE = 65536;
+    private static final Metrics.DatabaseMetrics QUERY_METRICS = Metrics.database("query");
+    private static final Metrics.DatabaseMetrics STREAM_METRICS = Metrics.database("stream");
+    private static final Metrics.DatabaseMetrics STREAM_PAGE_METRICS = Metrics.database("streamPage");
+    private static final Metrics.DatabaseMetrics EXPORT_JSON_METRICS = Metrics.database("exportJson");
+    private static final Metrics.DatabaseMetrics EXPORT_EVENTS_METRICS = Metrics.database("exportEvents");
+    private static final Metrics.DatabaseMetrics QUERY_EVENT_METRICS = Metrics.database("queryEvent");
+    private static final Metrics.DatabaseMetrics VERSION_METRICS = Metrics.database("version");
+    private static final Metrics.DatabaseMetrics SYNC_TOKEN_METRICS = Metrics.database("syncToken");
+    private static final Metrics.DatabaseMetrics CHANGES_METRICS = Metrics.database("changes");
+    private static final Metrics.DatabaseMetrics COMPACT_METRICS = Metrics.database("compactTombstones");
+    private static final Metrics.DatabaseMetrics INSERT_METRICS = Metrics.database("insert");
+    private static final Metrics.DatabaseMetrics INSERT_BATCH_METRICS = Metrics.database("insertBatch");
+    private static final Metrics.DatabaseMetrics IMPORT_METRICS = Metrics.database("importEvents");
+    private static final Metrics.DatabaseMetrics UPDATE_METRICS = Metrics.database("update");
+    private static final Metrics.DatabaseMetrics DELETE_METRICS = Metrics.database("delete");
+    private static final Metrics.DatabaseMetrics CLEAR_METRICS = Metrics.database("clear");
+
+    public static PostgresDatabase connect(DatabaseConfig config) throws SQLException {
+        String url = "jdbc:postgresql://" + config.host() + ":" + config.port() + "/";
+        Properties properties = new Properties();
+        if (config.user() != null) properties.put("user", config.user());
+        if (config.password() != null) properties.put("password", config.password());
+        properties.put("reWriteBatchedInserts", "true");
+        properties.put("prepareThreshold", Integer.toString(config.prepareThreshold()));
+        properties.put("preparedStatementCacheQueries", Integer.toString(config.statementCacheSize()));
+        ConnectionPool pool = new ConnectionPool(config.pool(), () -> {
+            Connection connection = DriverManager.getConnection(url, properties);
+            connection.setAutoCommit(false);
+            return connection;
+        });
+        ConnectionPool.ConnectionFactory notifierFactory = () -> DriverManager.getConnection(url, properties);
+        try {
+            try (ConnectionPool.Lease lease = pool.acquire()) {
+                setupDatabase(lease.connection());
+            }
+            pool.fill();
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+        return new PostgresDatabase(pool, config.notifications(), config.groupCommit(), notifierFactory);
+    }
+
+    private static void setupDatabase(Connection connection) throws SQLException {
+        DatabaseMetaData meta = connection.getMetaData();
+        try (ResultSet tables = meta.getTables(null, null, "events", null)) {
+            if (!tables.next()) {
+                createEventsTable(connection);
+            }
+        }
+        try (ResultSet tables = meta.getTables(null, null, "calendar_state", null)) {
+            if (!tables.next()) {
+                createCalendarStateTable(connection);
+            }
+        }
+        try (ResultSet tables = meta.getTables(null, null, "tombstones", null)) {
+            if (!tables.next()) {
+                createTombstonesTable(connection);
+            }
+        }
+        migrateDatabase(connection);
+        createIndices(connection);
+    }
+    
+    private static void createEventsTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.addBatch("""
+                    CREATE TABLE events (
+                      uid UUID PRIMARY KEY,
+                      cal TEXT NOT NULL,
+                      title TEXT NOT NULL,
+                      modified TIMESTAMP NOT NULL,
+                      description TEXT,
+                      location TEXT,
+                      url TEXT,
+                      start_date DATE NOT NULL,
+                      start_time TIME,
+                      end_date DATE NOT NULL,
+                      end_time TIME,
+                      version BIGINT NOT NULL DEFAULT 0
+                    );
+                    """);
+            stmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+    
+    private static void createIndices(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE INDEX IF NOT EXISTS events_cal_range_idx ON events (cal, start_date, end_date);
+                    CREATE INDEX IF NOT EXISTS events_cal_version_idx ON events (cal, version);
+                    CREATE INDEX IF NOT EXISTS events_cal_uid_idx ON events (cal, uid);
+                    CREATE INDEX IF NOT EXISTS tombstones_cal_version_idx ON tombstones (cal, version);
+                    """);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+    
+    private static void createCalendarStateTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE calendar_state (
+                      cal TEXT PRIMARY KEY,
+                      deletions BIGINT NOT NULL,
+                      last_deleted TIMESTAMP,
+                      version BIGINT NOT NULL DEFAULT 0,
+                      compacted BIGINT NOT NULL DEFAULT 0
+                    );
+                    """);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+    
+    private static void createTombstonesTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE tombstones (
+                      cal TEXT NOT NULL,
+                      uid UUID NOT NULL,
+                      version BIGINT NOT NULL,
+                      deleted TIMESTAMP NOT NULL,
+                      PRIMARY KEY (cal, uid)
+                    );
+                    """);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+    
+    // Adds the columns used for incremental sync to tables created by older versions
+    private static void migrateDatabase(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.addBatch("ALTER TABLE events ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;");
+            stmt.addBatch("ALTER TABLE calendar_state ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;");
+            stmt.addBatch("ALTER TABLE calendar_state ADD COLUMN IF NOT EXISTS compacted BIGINT NOT NULL DEFAULT 0;");
+            stmt.addBatch("ALTER TABLE calendar_state ALTER COLUMN last_deleted DROP NOT NULL;");
+            stmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+    
+    private final ConnectionPool pool;
+    private final List<ChangeListener> listeners;
+    @Nullable private final ChangeNotifier notifier;
+    @Nullable private final GroupCommitter committer;
+    
+    private PostgresDatabase(ConnectionPool pool, NotifyConfig notify, GroupCommitConfig groupCommit, ConnectionPool.ConnectionFactory notifierFactory) {
+        this.pool = pool;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.notifier = notify.enabled() ? new ChangeNotifier(notify, notifierFactory, new Dispatcher()) : null;
+        this.committer = groupCommit.enabled() ? new GroupCommitter(groupCommit, pool, this::publish, this::changed) : null;
+    }
+    
+    @Override
+    public void addListener(ChangeListener listener) {
+        this.listeners.add(listener);
+    }
+    
+    @Override
+    public void listen() {
+        if (this.notifier != null) this.notifier.start();
+    }
+    
+    @Override
+    @Nullable
+    public ChangeNotifier notifier() {
+        return this.notifier;
+    }
+    
+    @Override
+    public List<Event> query(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement("SELECT * FROM events WHERE cal = ANY(?) ORDER BY uid ASC;")) {
+                stmt.setArray(1, calendarArray(lease.connection(), storedCalendars));
+                if (stmt.execute()) {
+                    List<Event> events = new LinkedList<>();
+                    ResultSet resultSet = stmt.getResultSet();
+                    while (resultSet.next()) {
+                        events.add(createEvent(resultSet));
+                    }
+                    QUERY_METRICS.rows(events.size());
+                    return Collections.unmodifiableList(events);
+                } else {
+                    return List.of();
+                }
+            }
+        } finally {
+            QUERY_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Reads the events with a cursor and hands them to the sink as they arrive
+    @Override
+    public void stream(ConfiguredCalendar calendar, TimeWindow window, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement("SELECT * FROM events WHERE cal = ANY(?) AND end_date >= ? AND start_date <= ? ORDER BY uid ASC;")) {
+                stmt.setFetchSize(FETCH_SIZE);
+                stmt.setArray(1, calendarArray(lease.connection(), storedCalendars));
+                // The driver sends LocalDate.MIN and LocalDate.MAX as -infinity and infinity
+                stmt.setObject(2, window.from());
+                stmt.setObject(3, window.to());
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    long rows = 0;
+                    while (resultSet.next()) {
+                        sink.accept(createEvent(resultSet));
+                        rows += 1;
+                    }
+                    STREAM_METRICS.rows(rows);
+                }
+            }
+        } finally {
+            STREAM_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void streamPage(ConfiguredCalendar calendar, TimeWindow window, @Nullable UUID after, int limit, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            String query = after == null
+                    ? "SELECT * FROM events WHERE cal = ANY(?) AND end_date >= ? AND start_date <= ? ORDER BY uid ASC LIMIT ?;"
+                    : "SELECT * FROM events WHERE cal = ANY(?) AND end_date >= ? AND start_date <= ? AND uid > ? ORDER BY uid ASC LIMIT ?;";
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement(query)) {
+                stmt.setFetchSize(FETCH_SIZE);
+                stmt.setArray(1, calendarArray(lease.connection(), storedCalendars));
+                stmt.setObject(2, window.from());
+                stmt.setObject(3, window.to());
+                int idx = 4;
+                if (after != null) stmt.setObject(idx++, after);
+                stmt.setInt(idx, limit);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    long rows = 0;
+                    while (resultSet.next()) {
+                        sink.accept(createEvent(resultSet));
+                        rows += 1;
+                    }
+                    STREAM_PAGE_METRICS.rows(rows);
+                }
+            }
+        } finally {
+            STREAM_PAGE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Writes every event as one line of JSON. Postgres builds the JSON itself, so rows are copied to the output
+    // without being decoded. The csv format with quote and delimiter characters that never occur in JSON output
+    // makes COPY write the values unchanged.
+    @Override
+    public long exportJson(ConfiguredCalendar calendar, OutputStream out) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            String query = String.format("""
+                    COPY (SELECT json_strip_nulls(json_build_object(
+                      'uid', uid,
+                      'title', title,
+                      'modified', to_char(modified::timestamptz AT TIME ZONE 'UTC', 'YYYY-MM-DD"T"HH24:MI:SS.US"Z"'),
+                      'description', description,
+                      'location', location,
+                      'url', url,
+                      'start', to_char(start_date + start_time, 'YYYY-MM-DD"T"HH24:MI:SS"Z"'),
+                      'end', to_char(end_date + end_time, 'YYYY-MM-DD"T"HH24:MI:SS"Z"'),
+                      'startDay', CASE WHEN start_time IS NULL OR end_time IS NULL THEN start_date END,
+                      'endDay', CASE WHEN start_time IS NULL OR end_time IS NULL THEN end_date END
+                    ))::text FROM events WHERE cal IN (%s) ORDER BY uid ASC) TO STDOUT WITH (FORMAT csv, QUOTE E'\\x01', DELIMITER E'\\x02');
+                    """, copyLiterals(calendar.getStoredCalendars()));
+            try (ConnectionPool.Lease lease = this.pool.acquire()) {
+                BufferedOutputStream buffered = new BufferedOutputStream(out, COPY_BUFFER_SIZE);
+                long rows = lease.connection().unwrap(PGConnection.class).getCopyAPI().copyOut(query, buffered);
+                buffered.flush();
+                EXPORT_JSON_METRICS.rows(rows);
+                return rows;
+            }
+        } finally {
+            EXPORT_JSON_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    // Reads all events through COPY, which skips the per row overhead of a cursor
+    @Override
+    public long exportEvents(ConfiguredCalendar calendar, EventSink sink) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            String query = String.format("""
+                    COPY (SELECT uid, title, to_char(modified::timestamptz AT TIME ZONE 'UTC', 'YYYY-MM-DD"T"HH24:MI:SS.US"Z"'),
+                      description, location, url, start_date, start_time, end_date, end_time
+                    FROM events WHERE cal IN (%s) ORDER BY uid ASC) TO STDOUT;
+                    """, copyLiterals(calendar.getStoredCalendars()));
+            try (ConnectionPool.Lease lease = this.pool.acquire()) {
+                CopyOut copy = lease.connection().unwrap(PGConnection.class).getCopyAPI().copyOut(query);
+                try {
+                    List<String> fields = new ArrayList<>(10);
+                    long rows = 0;
+                    byte[] row;
+                    while ((row = copy.readFromCopy()) != null) {
+                        parseCopyRow(new String(row, StandardCharsets.UTF_8), fields);
+                        if (fields.size() != 10) throw new SQLException("unexpected COPY row");
+                        sink.accept(createEvent(
+                                UUID.fromString(fields.get(0)), fields.get(1), Instant.parse(fields.get(2)),
+                                fields.get(3), fields.get(4), fields.get(5),
+                                LocalDate.parse(fields.get(6)), fields.get(7) == null ? null : LocalTime.parse(fields.get(7)),
+                                LocalDate.parse(fields.get(8)), fields.get(9) == null ? null : LocalTime.parse(fields.get(9))
+                        ));
+                        rows += 1;
+                    }
+                    EXPORT_EVENTS_METRICS.rows(rows);
+                    return rows;
+                } finally {
+                    if (copy.isActive()) copy.cancelCopy();
+                }
+            }
+        } finally {
+            EXPORT_EVENTS_METRICS.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    @Nullable
+    public Event query(ConfiguredCalendar calendar, UUID uid) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement("SELECT * FROM events WHERE uid = ? AND cal = ANY(?);")) {
+                stmt.setObject(1, uid);
+                stmt.setArray(2, calendarArray(lease.connection(), storedCalendars));
+                if (stmt.execute()) {
+                    ResultSet resultSet = stmt.getResultSet();
+                    boolean found = resultSet.next();
+                    QUERY_EVENT_METRICS.rows(found ? 1 : 0);
+                    return found ? createEvent(resultSet) : null;
+                } else {
+                    return null;
+                }
+            }
+        } finally {
+            QUERY_EVENT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public CalendarVersion version(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement("""
+                    SELECT e.modified, s.cal, s.version, s.last_deleted FROM
+                      (SELECT max(modified) AS modified FROM events WHERE cal = ANY(?)) e
+                      LEFT JOIN calendar_state s ON s.cal = ANY(?);
+                    """)) {
+                Array calendars = calendarArray(lease.connection(), storedCalendars);
+                stmt.setArray(1, calendars);
+                stmt.setArray(2, calendars);
+                Long[] versions = new Long[storedCalendars.size()];
+                Arrays.fill(versions, 0L);
+                @Nullable Instant modified = null;
+                @Nullable Instant deleted = null;
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        @Nullable Timestamp eventModified = resultSet.getTimestamp("modified");
+                        if (eventModified != null) modified = eventModified.toInstant();
+                        // No state yet for calendars that were never written to
+                        @Nullable String cal = resultSet.getString("cal");
+                        if (cal == null) continue;
+                        versions[storedCalendars.indexOf(cal)] = resultSet.getLong("version");
+                        @Nullable Timestamp lastDeleted = resultSet.getTimestamp("last_deleted");
+                        if (lastDeleted != null && (deleted == null || lastDeleted.toInstant().isAfter(deleted))) deleted = lastDeleted.toInstant();
+                    }
+                }
+                return new CalendarVersion(List.of(versions), modified, deleted);
+            }
+        } finally {
+            VERSION_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public SyncToken syncToken(ConfiguredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            try (ConnectionPool.Lease lease = this.pool.acquire(); PreparedStatement stmt = lease.connection().prepareStatement("SELECT cal, version FROM calendar_state WHERE cal = ANY(?);")) {
+                stmt.setArray(1, calendarArray(lease.connection(), storedCalendars));
+                Long[] versions = new Long[storedCalendars.size()];
+                Arrays.fill(versions, 0L);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        versions[storedCalendars.indexOf(resultSet.getString("cal"))] = resultSet.getLong("version");
+                    }
+                }
+                return new SyncToken(List.of(versions));
+            }
+        } finally {
+            SYNC_TOKEN_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    // Returns null if tombstones needed for the requested token were already compacted
+    @Override
+    @Nullable
+    public Changes changes(ConfiguredCalendar calendar, @Nullable SyncToken since) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> storedCalendars = calendar.getStoredCalendars();
+            if (since != null && since.versions().size() != storedCalendars.size()) return null;
+            try (ConnectionPool.Lease lease = this.pool.acquire()) {
+                Connection connection = lease.connection();
+                Long[] current = new Long[storedCalendars.size()];
+                Long[] from = new Long[storedCalendars.size()];
+                Arrays.fill(current, 0L);
+                for (int i = 0; i < from.length; i++) {
+                    from[i] = since == null ? -1 : since.versions().get(i);
+                }
+                try (PreparedStatement stmt = connection.prepareStatement("SELECT cal, version, compacted FROM calendar_state WHERE cal = ANY(?);")) {
+                    stmt.setArray(1, calendarArray(connection, storedCalendars));
+                    try (ResultSet resultSet = stmt.executeQuery()) {
+                        while (resultSet.next()) {
+                            int idx = storedCalendars.indexOf(resultSet.getString("cal"));
+                            current[idx] = resultSet.getLong("version");
+                            if (since != null && from[idx] < resultSet.getLong("compacted")) return null;
+                        }
+                    }
+                }
+                if (since != null) {
+                    for (int i = 0; i < from.length; i++) {
+                        // Tokens ahead of the database don't come from this database
+                        if (from[i] > current[i]) return null;
+                    }
+                }
+            
+                // Only changes up to the versions read above are included, later ones are part of the next sync
+                Array calendarArray = calendarArray(connection, storedCalendars);
+                Array fromArray = connection.createArrayOf("bigint", from);
+                Array currentArray = connection.createArrayOf("bigint", current);
+                List<Event> events = new ArrayList<>();
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        SELECT e.* FROM events e JOIN unnest(?::text[], ?::bigint[], ?::bigint[]) AS s(cal, since, current) ON e.cal = s.cal
+                        WHERE e.version > s.since AND e.version <= s.current ORDER BY e.uid ASC;
+                        """)) {
+                    stmt.setFetchSize(FETCH_SIZE);
+                    stmt.setArray(1, calendarArray);
+                    stmt.setArray(2, fromArray);
+                    stmt.setArray(3, currentArray);
+                    try (ResultSet resultSet = stmt.executeQuery()) {
+                        while (resultSet.next()) {
+                            events.add(createEvent(resultSet));
+                        }
+                    }
+                }
+                List<UUID> deleted = new ArrayList<>();
+                if (since != null) {
+                    try (PreparedStatement stmt = connection.prepareStatement("""
+                            SELECT t.uid FROM tombstones t JOIN unnest(?::text[], ?::bigint[], ?::bigint[]) AS s(cal, since, current) ON t.cal = s.cal
+                            WHERE t.version > s.since AND t.version <= s.current
+                            AND NOT EXISTS (SELECT 1 FROM events e WHERE e.cal = t.cal AND e.uid = t.uid) ORDER BY t.uid ASC;
+                            """)) {
+                        stmt.setFetchSize(FETCH_SIZE);
+                        stmt.setArray(1, calendarArray);
+                        stmt.setArray(2, fromArray);
+                        stmt.setArray(3, currentArray);
+                        try (ResultSet resultSet = stmt.executeQuery()) {
+                            while (resultSet.next()) {
+                                deleted.add(resultSet.getObject("uid", UUID.class));
+                            }
+                        }
+                    }
+                }
+                CHANGES_METRICS.rows(events.size() + deleted.size());
+                return new Changes(new SyncToken(List.of(current)), Collections.unmodifiableList(events), Collections.unmodifiableList(deleted));
+            }
+        } finally {
+            CHANGES_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    // Drops tombstones of events deleted before the given time. Sync tokens older than the dropped tombstones
+    // can't be served anymore afterwards.
+    @Override
+    public long compactTombstones(Instant before) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            try (ConnectionPool.Lease lease = this.pool.acquire()) {
+                Connection connection = lease.connection();
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        WITH purged AS (DELETE FROM tombstones WHERE deleted < ? RETURNING cal, version),
+                        compacted AS (SELECT cal, max(version) AS version, count(*) AS tombstones FROM purged GROUP BY cal),
+                        updated AS (UPDATE calendar_state s SET compacted = greatest(s.compacted, c.version) FROM compacted c WHERE s.cal = c.cal)
+                        SELECT coalesce(sum(tombstones), 0) FROM compacted;
+                        """)) {
+                    stmt.setTimestamp(1, Timestamp.from(before));
+                    long purged;
+                    try (ResultSet resultSet = stmt.executeQuery()) {
+                        purged = resultSet.next() ? resultSet.getLong(1) : 0;
+                    }
+                    connection.commit();
+                    return purged;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        } finally {
+            COMPACT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public Event insert(StoredCalendar calendar, Event event) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            UUID assignedUid = UUID.randomUUID();
+            Instant modified = Instant.now();
+            return this.write(calendar, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        INSERT INTO events (uid, cal, title, modified, description, location, url, start_date, start_time, end_date, end_time, version)
+                        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
+                        """)) {
+                    long version = nextVersion(connection, calendar);
+                    stmt.setObject(1, assignedUid);
+                    stmt.setString(2, calendar.id());
+                    fillInPreparedStatement(modified, event, 3, stmt);
+                    stmt.setLong(12, version);
+                    stmt.executeUpdate();
+                    return new Event(assignedUid, event.title(), modified, event.description(), event.location(), event.url(), event.times());
+                }
+            });
+        } finally {
+            INSERT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public List<Event> insert(StoredCalendar calendar, List<Event> events) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Instant modified = Instant.now();
+            List<Event> insertedEvents = this.write(calendar, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        INSERT INTO events (uid, cal, title, modified, description, location, url, start_date, start_time, end_date, end_time, version)
+                        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
+                        """)) {
+                    long version = nextVersion(connection, calendar);
+                    List<Event> inserted = new ArrayList<>(events.size());
+                    for (Event event : events) {
+                        UUID assignedUid = UUID.randomUUID();
+                        stmt.setObject(1, assignedUid);
+                        stmt.setString(2, calendar.id());
+                        fillInPreparedStatement(modified, event, 3, stmt);
+                        stmt.setLong(12, version);
+                        stmt.addBatch();
+                        inserted.add(new Event(assignedUid, event.title(), modified, event.description(), event.location(), event.url(), event.times()));
+                    }
+                    stmt.executeBatch();
+                    return inserted;
+                }
+            });
+            INSERT_BATCH_METRICS.rows(events.size());
+            return Collections.unmodifiableList(insertedEvents);
+        } finally {
+            INSERT_BATCH_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    // Loads the events through COPY, so only the events that have not been sent yet are kept in memory
+    @Override
+    public long importEvents(StoredCalendar calendar, EventSource source) throws SQLException, IOException, ParseException {
+        long start = System.nanoTime();
+        try {
+            Instant imported = Instant.now();
+            try (ConnectionPool.Lease lease = this.pool.acquire()) {
+                Connection connection = lease.connection();
+                // The upload is streamed into a staging table first. The calendar version is only locked for the
+                // final insert, so a slow upload doesn't block other writes to the calendar or the group committer.
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("CREATE TEMPORARY TABLE import_events (LIKE events INCLUDING DEFAULTS) ON COMMIT DROP;");
+                }
+                PGCopyOutputStream copy = new PGCopyOutputStream(connection.unwrap(PGConnection.class), """
+                        COPY import_events (uid, cal, title, modified, description, location, url, start_date, start_time, end_date, end_time) FROM STDIN;
+                        """, COPY_BUFFER_SIZE);
+                try {
+                    Writer writer = new OutputStreamWriter(copy, StandardCharsets.UTF_8);
+                    StringBuilder row = new StringBuilder();
+                    source.read(event -> {
+                        row.setLength(0);
+                        appendCopyRow(row, calendar, imported, event);
+                        writer.append(row);
+                    });
+                    writer.flush();
+                    copy.endCopy();
+                    long version = nextVersion(connection, calendar);
+                    long rows;
+                    try (PreparedStatement stmt = connection.prepareStatement("""
+                            INSERT INTO events (uid, cal, title, modified, description, location, url, start_date, start_time, end_date, end_time, version)
+                            SELECT uid, cal, title, modified, description, location, url, start_date, start_time, end_date, end_time, ? FROM import_events;
+                            """)) {
+                        stmt.setLong(1, version);
+                        rows = stmt.executeUpdate();
+                    }
+                    IMPORT_METRICS.rows(rows);
+                    this.publish(connection, calendar.id());
+                    connection.commit();
+                    this.changed(calendar.id());
+                    return rows;
+                } catch (SQLException | IOException | ParseException | RuntimeException e) {
+                    if (copy.isActive()) copy.cancelCopy();
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        } finally {
+            IMPORT_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public Event update(StoredCalendar calendar, Event event) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Instant modified = Instant.now();
+            return this.write(calendar, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        UPDATE events SET
+                          title = ?,
+                          modified = ?,
+                          description = ?,
+                          location = ?,
+                          url = ?,
+                          start_date = ?,
+                          start_time = ?,
+                          end_date = ?,
+                          end_time = ?,
+                          version = ?
+                        WHERE cal = ? AND uid = ?;
+                        """)) {
+                    long version = nextVersion(connection, calendar);
+                    fillInPreparedStatement(modified, event, 1, stmt);
+                    stmt.setLong(10, version);
+                    stmt.setString(11, calendar.id());
+                    stmt.setObject(12, event.uid());
+                    stmt.executeUpdate();
+                    return new Event(event.uid(), event.title(), modified, event.description(), event.location(), event.url(), event.times());
+                }
+            });
+        } finally {
+            UPDATE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public void delete(StoredCalendar calendar, UUID uid) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            this.write(calendar, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        WITH deleted AS (DELETE FROM events WHERE cal = ? AND uid = ? RETURNING cal, uid)
+                        INSERT INTO tombstones (cal, uid, version, deleted) SELECT cal, uid, ?, ? FROM deleted
+                        ON CONFLICT (cal, uid) DO UPDATE SET version = EXCLUDED.version, deleted = EXCLUDED.deleted;
+                        """)) {
+                    long version = nextVersion(connection, calendar);
+                    stmt.setString(1, calendar.id());
+                    stmt.setObject(2, uid);
+                    stmt.setLong(3, version);
+                    stmt.setTimestamp(4, Timestamp.from(Instant.now()));
+                    if (stmt.executeUpdate() > 0) recordDeletion(connection, calendar);
+                    return null;
+                }
+            });
+        } finally {
+            DELETE_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public void clear(StoredCalendar calendar) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            this.write(calendar, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement("""
+                        WITH deleted AS (DELETE FROM events WHERE cal = ? RETURNING cal, uid)
+                        INSERT INTO tombstones (cal, uid, version, deleted) SELECT cal, uid, ?, ? FROM deleted
+                        ON CONFLICT (cal, uid) DO UPDATE SET version = EXCLUDED.version, deleted = EXCLUDED.deleted;
+                        """)) {
+                    long version = nextVersion(connection, calendar);
+                    stmt.setString(1, calendar.id());
+                    stmt.setLong(2, version);
+                    stmt.setTimestamp(3, Timestamp.from(Instant.now()));
+                    if (stmt.executeUpdate() > 0) recordDeletion(connection, calendar);
+                    return null;
+                }
+            });
+        } finally {
+            CLEAR_METRICS.record(System.nanoTime() - start);
+        }
+    }
+    
+    // Runs a write in its own transaction, or hands it to the group committer if group commit is enabled
+    private <T> T write(StoredCalendar calendar, GroupCommitter.Write<T> write) throws SQLException {
+        if (this.committer != null) return this.committer.submit(calendar.id(), write);
+        try (ConnectionPool.Lease lease = this.pool.acquire()) {
+            Connection connection = lease.connection();
+            try {
+                T result = write.apply(connection);
+                this.publish(connection, calendar.id());
+                connection.commit();
+                this.changed(calendar.id());
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+    
+    // Every write takes the next sync version of its calendar. The row lock on the calendar state is held until
+    // the transaction ends, so versions of a calendar become visible in the order they were taken.
+    private static long nextVersion(Connection connection, StoredCalendar calendar) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("""
+                INSERT INTO calendar_state (cal, deletions, version) VALUES (?, 0, 1)
+                ON CONFLICT (cal) DO UPDATE SET version = calendar_state.version + 1
+                RETURNING version;
+                """)) {
+            stmt.setString(1, calendar.id());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (!resultSet.next()) throw new SQLException("no calendar version");
+                return resultSet.getLong(1);
+            }
+        }
+    }
+    
+    // Deletions can't be detected from the remaining events, so they are counted for calendar versions
+    private static void recordDeletion(Connection connection, StoredCalendar calendar) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("""
+                INSERT INTO calendar_state (cal, deletions, last_deleted) VALUES (?, 1, ?)
+                ON CONFLICT (cal) DO UPDATE SET deletions = calendar_state.deletions + 1, last_deleted = EXCLUDED.last_deleted;
+                """)) {
+            stmt.setString(1, calendar.id());
+            stmt.setTimestamp(2, Timestamp.from(Instant.now()));
+            stmt.executeUpdate();
+        }
+    }
+    
+    private void publish(Connection connection, String calendar) throws SQLException {
+        if (this.notifier != null) ChangeNotifier.publish(connection, calendar);
+    }
+    
+    private void changed(String calendar) {
+        for (ChangeListener listener : this.listeners) {
+            listener.changed(calendar);
+        }
+    }
+    
+    private static Event createEvent(ResultSet resultSet) throws SQLException {
+        UUID uid = resultSet.getObject("uid", UUID.class);
+        String title = resultSet.getString("title");
+        Instant modified = resultSet.getTimestamp("modified").toInstant();
+        @Nullable String description = resultSet.getString("description");
+        @Nullable String location = resultSet.getString("location");
+        @Nullable String url = resultSet.getString("url");
+        LocalDate startDate = resultSet.getDate("start_date").toLocalDate();
+        LocalDate endDate = resultSet.getDate("end_date").toLocalDate();
+        @Nullable Time sqlStartTime = resultSet.getTime("start_time");
+        @Nullable Time sqlEndTime = resultSet.getTime("end_time");
+        @Nullable LocalTime startTime = sqlStartTime == null ? null : sqlStartTime.toLocalTime();
+        @Nullable LocalTime endTime = sqlEndTime == null ? null : sqlEndTime.toLocalTime();
+        return createEvent(uid, title, modified, description, location, url, startDate, startTime, endDate, endTime);
+    }
+    
+    private static Event createEvent(UUID uid, String title, Instant modified, @Nullable String description, @Nullable String location, @Nullable String url, LocalDate startDate, @Nullable LocalTime startTime, LocalDate endDate, @Nullable LocalTime endTime) {
+        Event.Times times;
+        if (startTime != null && endTime != null) {
+            times = new Event.Timed(
+                    ZonedDateTime.of(startDate, startTime, ZoneOffset.UTC).toInstant(),
+                    ZonedDateTime.of(endDate, endTime, ZoneOffset.UTC).toInstant()
+            );
+        } else {
+            times = new Event.AllDay(startDate, endDate);
+        }
+        return new Event(uid, title, modified, description, location, url, times);
+    }
+    
+    // Binding the calendars as one array keeps the statement text the same for any amount of calendars,
+    // so the driver can reuse its server side prepared statements.
+    private static Array calendarArray(Connection connection, List<String> calendars) throws SQLException {
+        return connection.createArrayOf("text", calendars.toArray(String[]::new));
+    }
+    
+    // COPY can't use bind parameters, so the calendar ids are inlined as string literals
+    private static String copyLiterals(List<String> values) {
+        return values.stream().map(value -> {
+            if (value.indexOf('\0') >= 0) throw new IllegalArgumentException("NUL in string literal");
+            return "'" + value.replace("'", "''") + "'";
+        }).collect(Collectors.joining(", "));
+    }
+    
+    // Splits a row in the text format of COPY into its unescaped values, null values are added as null
+    private static void parseCopyRow(String row, List<String> fields) {
+        fields.clear();
+        int end = row.endsWith("\n") ? row.length() - 1 : row.length();
+        StringBuilder value = new StringBuilder();
+        int fieldStart = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || row.charAt(i) == '\t') {
+                fields.add(i - fieldStart == 2 && row.startsWith("\\N", fieldStart) ? null : value.toString());
+                value.setLength(0);
+                fieldStart = i + 1;
+            } else if (row.charAt(i) == '\\' && i + 1 < end) {
+                char chr = row.charAt(++i);
+                switch (chr) {
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'v' -> value.append('\u000B');
+                    default -> value.append(chr);
+                }
+            } else {
+                value.append(row.charAt(i));
+            }
+        }
+    }
+    
+    // Produces the same column values as fillInPreparedStatement in the text format of COPY
+    private static void appendCopyRow(StringBuilder row, StoredCalendar calendar, Instant imported, Event event) {
+        // Modification times in the future would hide later changes from calendar versions
+        Instant modified = event.modified().isAfter(imported) ? imported : event.modified();
+        row.append(event.uid()).append('\t');
+        appendCopyValue(row, calendar.id());
+        appendCopyValue(row, event.title());
+        // Timestamps are stored in the local time of the JVM just like setTimestamp does it
+        appendCopyValue(row, LocalDateTime.ofInstant(modified, ZoneId.systemDefault()).toString());
+        appendCopyValue(row, event.description());
+        appendCopyValue(row, event.location());
+        appendCopyValue(row, event.url());
+        if (event.times() instanceof Event.Timed timed) {
+            ZonedDateTime start = ZonedDateTime.ofInstant(timed.start(), ZoneOffset.UTC);
+            ZonedDateTime end = ZonedDateTime.ofInstant(timed.end(), ZoneOffset.UTC);
+            appendCopyValue(row, start.toLocalDate().toString());
+            appendCopyValue(row, start.toLocalTime().withNano(0).toString());
+            appendCopyValue(row, end.toLocalDate().toString());
+            appendCopyValue(row, end.toLocalTime().withNano(0).toString());
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            appendCopyValue(row, allDay.start().toString());
+            appendCopyValue(row, null);
+            appendCopyValue(row, allDay.end().toString());
+            appendCopyValue(row, null);
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+        row.setCharAt(row.length() - 1, '\n');
+    }
+    
+    private static void appendCopyValue(StringBuilder row, @Nullable String value) {
+        if (value == null) {
+            row.append("\\N");
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                char chr = value.charAt(i);
+                switch (chr) {
+                    case '\\' -> row.append("\\\\");
+                    case '\t' -> row.append("\\t");
+                    case '\n' -> row.append("\\n");
+                    case '\r' -> row.append("\\r");
+                    default -> row.append(chr);
+                }
+            }
+        }
+        row.append('\t');
+    }
+    
+    private static void fillInPreparedStatement(Instant modified, Event event, int offset, PreparedStatement stmt) throws SQLException {
+        stmt.setString(offset, event.title());
+        stmt.setTimestamp(offset + 1, Timestamp.from(modified));
+        stmt.setString(offset + 2, event.description());
+        stmt.setString(offset + 3, event.location());
+        stmt.setString(offset + 4, event.url());
+        if (event.times() instanceof Event.Timed timed) {
+            ZonedDateTime start = ZonedDateTime.ofInstant(timed.start(), ZoneOffset.UTC);
+            ZonedDateTime end = ZonedDateTime.ofInstant(timed.end(), ZoneOffset.UTC);
+            stmt.setDate(offset + 5, Date.valueOf(start.toLocalDate()));
+            stmt.setTime(offset + 6, Time.valueOf(start.toLocalTime()));
+            stmt.setDate(offset + 7, Date.valueOf(end.toLocalDate()));
+            stmt.setTime(offset + 8, Time.valueOf(end.toLocalTime()));
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            stmt.setDate(offset + 5, Date.valueOf(allDay.start()));
+            stmt.setTime(offset + 6, null);
+            stmt.setDate(offset + 7, Date.valueOf(allDay.end()));
+            stmt.setTime(offset + 8, null);
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (this.committer != null) this.committer.close();
+        if (this.notifier != null) this.notifier.close();
+        this.pool.close();
+    }
+    
+    private class Dispatcher implements ChangeListener {
+
+        @Override
+        public void changed(String calendar) {
+            PostgresDatabase.this.changed(calendar);
+        }
+
+        @Override
+        public void lost() {
+            for (ChangeListener listener : PostgresDatabase.this.listeners) {
+                listener.lost();
+            }
+        }
+
+        @Override
+        public void restored() {
+            for (ChangeListener listener : PostgresDatabase.this.listeners) {
+                listener.restored();
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package crocodile.db;
+
+import java.time.Duration;
+
+public record SyncConfig(Duration retention, Duration compactionInterval) {
+}
@@ -0,0 +1,6 @@
+package crocodile.feed;
+
+import java.time.Duration;
+
+public record CacheConfig(long maxSize, Duration ttl, boolean coalesce, Duration coalesceTimeout) {
+}
@@ -0,0 +1,52 @@
+package crocodile.feed;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Keeps a copy of everything written as long as it does not exceed the limit.
+public class CapturingOutputStream extends FilterOutputStream {
+    
+    private final long limit;
+    @Nullable private ByteArrayOutputStream capture;
+    private long written;
+
+    public CapturingOutputStream(OutputStream out, long limit) {
+        super(out);
+        this.limit = limit;
+        this.capture = limit > 0 ? new ByteArrayOutputStream() : null;
+        this.written = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        this.capture(1);
+        if (this.capture != null) this.capture.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.capture(len);
+        if (this.capture != null) this.capture.write(b, off, len);
+    }
+    
+    private void capture(int len) {
+        this.written += len;
+        if (this.capture != null && this.capture.size() + len > this.limit) {
+            this.capture = null;
+        }
+    }
+
+    public long written() {
+        return this.written;
+    }
+
+    @Nullable
+    public byte[] captured() {
+        return this.capture == null ? null : this.capture.toByteArray();
+    }
+}
@@ -0,0 +1,86 @@
+package crocodile.feed;
+
+import crocodile.db.ChangeListener;
+import crocodile.model.ConfiguredCalendar;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Wakes up clients waiting for changes to a calendar. Changes are not queued, a subscription only remembers
+// that something changed. Clients read the changes themselves, so slow clients never pile up notifications.
+public class ChangeSubscriptions implements ChangeListener {
+
+    private final Map<String, Set<Subscription>> subscriptions;
+
+    public ChangeSubscriptions() {
+        this.subscriptions = new ConcurrentHashMap<>();
+    }
+
+    public Subscription subscribe(ConfiguredCalendar calendar) {
+        Subscription subscription = new Subscription(calendar);
+        for (String storedCalendar : calendar.getStoredCalendars()) {
+            this.subscriptions.compute(storedCalendar, (k, set) -> {
+                Set<Subscription> subscriptions = set == null ? ConcurrentHashMap.newKeySet() : set;
+                subscriptions.add(subscription);
+                return subscriptions;
+            });
+        }
+        return subscription;
+    }
+
+    @Override
+    public void changed(String calendar) {
+        Set<Subscription> subscriptions = this.subscriptions.get(calendar);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                subscription.signal();
+            }
+        }
+    }
+
+    // Changes that were missed in between are picked up when the clients read their changes
+    @Override
+    public void restored() {
+        for (Set<Subscription> subscriptions : this.subscriptions.values()) {
+            for (Subscription subscription : subscriptions) {
+                subscription.signal();
+            }
+        }
+    }
+
+    public final class Subscription implements AutoCloseable {
+
+        private final ConfiguredCalendar calendar;
+        private final Semaphore signal;
+
+        private Subscription(ConfiguredCalendar calendar) {
+            this.calendar = calendar;
+            this.signal = new Semaphore(0);
+        }
+
+        private void signal() {
+            if (this.signal.availablePermits() == 0) this.signal.release();
+        }
+
+        // Returns whether something changed since the last call
+        public boolean await(Duration timeout) throws InterruptedException {
+            if (!this.signal.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) return false;
+            this.signal.drainPermits();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            for (String storedCalendar : this.calendar.getStoredCalendars()) {
+                ChangeSubscriptions.this.subscriptions.computeIfPresent(storedCalendar, (k, set) -> {
+                    set.remove(this);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+        }
+    }
+}
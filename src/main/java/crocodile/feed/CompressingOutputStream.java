@@ -0,0 +1,77 @@
+package crocodile.feed;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Holds back the output until it reaches the minimum compression size. Smaller output is written uncompressed
+// on finish, larger output is compressed from the start. The callback runs before the first compressed byte is
+// written, so the Content-Encoding header can still be set.
+public class CompressingOutputStream extends OutputStream {
+
+    private final Compression compression;
+    private final OutputStream out;
+    private final int minSize;
+    private final Runnable onCompress;
+    @Nullable private ByteArrayOutputStream pending;
+    @Nullable private GZIPOutputStream gzip;
+
+    CompressingOutputStream(Compression compression, OutputStream out, int minSize, Runnable onCompress) {
+        this.compression = compression;
+        this.out = out;
+        this.minSize = minSize;
+        this.onCompress = onCompress;
+        this.pending = new ByteArrayOutputStream(Math.min(minSize, 8192));
+        this.gzip = null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.gzip != null) {
+            this.gzip.write(b, off, len);
+            return;
+        }
+        if (this.pending == null) throw new IOException("Stream finished");
+        this.pending.write(b, off, len);
+        if (this.pending.size() >= this.minSize) {
+            this.onCompress.run();
+            this.gzip = (GZIPOutputStream) this.compression.stream(this.out);
+            this.pending.writeTo(this.gzip);
+            this.pending = null;
+        }
+    }
+
+    // Pending output is not flushed, the encoding is not known yet
+    @Override
+    public void flush() throws IOException {
+        if (this.gzip != null) this.gzip.flush();
+    }
+
+    public boolean compressed() {
+        return this.gzip != null;
+    }
+
+    // Writes the remaining output without closing the underlying stream
+    public void finish() throws IOException {
+        if (this.gzip != null) {
+            this.gzip.finish();
+        } else if (this.pending != null) {
+            this.pending.writeTo(this.out);
+            this.pending = null;
+        }
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        this.out.close();
+    }
+}
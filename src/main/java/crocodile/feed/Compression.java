@@ -0,0 +1,85 @@
+package crocodile.feed;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+public class Compression {
+    
+    private final CompressionConfig config;
+
+    public Compression(CompressionConfig config) {
+        this.config = config;
+    }
+    
+    public boolean enabled() {
+        return this.config.enabled();
+    }
+
+    // An explicit gzip entry takes precedence over the wildcard, which only applies to codings that are not listed
+    public boolean accepted(@Nullable String acceptEncoding) {
+        if (!this.config.enabled() || acceptEncoding == null) return false;
+        @Nullable Double gzip = null;
+        @Nullable Double wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].strip().toLowerCase(Locale.ROOT);
+            if (!name.equals("gzip") && !name.equals("*")) continue;
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].strip().toLowerCase(Locale.ROOT);
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip")) {
+                gzip = quality;
+            } else {
+                wildcard = quality;
+            }
+        }
+        @Nullable Double quality = gzip != null ? gzip : wildcard;
+        return quality != null && quality > 0;
+    }
+    
+    public boolean worthwhile(long size) {
+        return this.config.enabled() && size >= this.config.minSize();
+    }
+
+    public OutputStream stream(OutputStream out) throws IOException {
+        return new LeveledGZIPOutputStream(out, this.config.level());
+    }
+
+    // For output of unknown size, only compresses it once it reaches the minimum size
+    public CompressingOutputStream stream(OutputStream out, Runnable onCompress) {
+        return new CompressingOutputStream(this, out, this.config.minSize(), onCompress);
+    }
+
+    @Nullable
+    public byte[] compress(byte[] data) {
+        if (!this.worthwhile(data.length)) return null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try (OutputStream gzip = this.stream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+    
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        public LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            this.def.setLevel(level);
+        }
+    }
+}
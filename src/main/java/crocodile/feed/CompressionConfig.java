@@ -0,0 +1,4 @@
+package crocodile.feed;
+
+public record CompressionConfig(boolean enabled, int level, int minSize) {
+}
@@ -0,0 +1,186 @@
+package crocodile.feed;
+
+import crocodile.db.ChangeListener;
+import crocodile.model.ConfiguredCalendar;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FeedCache implements ChangeListener {
+
+    private final long maxSize;
+    private final long ttlNanos;
+    private final ReentrantLock lock;
+    private final LinkedHashMap<FeedKey, Entry> entries;
+    private final Map<String, AtomicLong> generations;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final AtomicLong epoch;
+    private volatile boolean suspended;
+    private long size;
+
+    public FeedCache(CacheConfig config) {
+        this.maxSize = config.maxSize();
+        this.ttlNanos = config.ttl().toNanos();
+        this.lock = new ReentrantLock();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.generations = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.epoch = new AtomicLong(0);
+        this.suspended = false;
+        this.size = 0;
+    }
+
+    @Nullable
+    public RenderedFeed get(FeedKey key) {
+        if (this.suspended) {
+            this.misses.increment();
+            return null;
+        }
+        this.lock.lock();
+        try {
+            Entry entry = this.entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created() > this.ttlNanos) {
+                this.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                this.misses.increment();
+                return null;
+            } else {
+                this.hits.increment();
+                return entry.feed();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Must be taken before the database is queried and passed to put. If any of the stored calendars changes
+    // in between, the rendered feed is discarded instead of being cached.
+    public long stamp(ConfiguredCalendar calendar) {
+        long stamp = this.epoch.get();
+        for (String storedCalendar : calendar.getStoredCalendars()) {
+            stamp += this.generation(storedCalendar).get();
+        }
+        return stamp;
+    }
+
+    public void put(FeedKey key, long stamp, RenderedFeed feed) {
+        if (feed.size() > this.maxSize || this.suspended) return;
+        this.lock.lock();
+        try {
+            if (this.stamp(key.calendar()) != stamp) return;
+            this.remove(key);
+            this.entries.put(key, new Entry(feed, System.nanoTime()));
+            this.size += feed.size();
+            Iterator<Map.Entry<FeedKey, Entry>> itr = this.entries.entrySet().iterator();
+            while (this.size > this.maxSize && itr.hasNext()) {
+                this.size -= itr.next().getValue().feed().size();
+                itr.remove();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void changed(String calendar) {
+        this.generation(calendar).incrementAndGet();
+        this.lock.lock();
+        try {
+            Iterator<Map.Entry<FeedKey, Entry>> itr = this.entries.entrySet().iterator();
+            while (itr.hasNext()) {
+                Map.Entry<FeedKey, Entry> entry = itr.next();
+                if (entry.getKey().calendar().getStoredCalendars().contains(calendar)) {
+                    this.size -= entry.getValue().feed().size();
+                    itr.remove();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Drops everything rendered for a calendar that was removed or changed in the config
+    public void drop(ConfiguredCalendar calendar) {
+        // Renders that are still running must not be cached
+        this.epoch.incrementAndGet();
+        this.lock.lock();
+        try {
+            Iterator<Map.Entry<FeedKey, Entry>> itr = this.entries.entrySet().iterator();
+            while (itr.hasNext()) {
+                Map.Entry<FeedKey, Entry> entry = itr.next();
+                if (entry.getKey().calendar() == calendar) {
+                    this.size -= entry.getValue().feed().size();
+                    itr.remove();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Changes from other instances might be missed, nothing is cached until they can be seen again
+    @Override
+    public void lost() {
+        this.suspended = true;
+        this.clear();
+    }
+
+    @Override
+    public void restored() {
+        this.clear();
+        this.suspended = false;
+    }
+
+    private void clear() {
+        this.epoch.incrementAndGet();
+        this.lock.lock();
+        try {
+            this.entries.clear();
+            this.size = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long maxSize() {
+        return this.maxSize;
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    public long size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void remove(FeedKey key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) this.size -= entry.feed().size();
+    }
+
+    private AtomicLong generation(String calendar) {
+        return this.generations.computeIfAbsent(calendar, k -> new AtomicLong(0));
+    }
+
+    private record Entry(RenderedFeed feed, long created) {}
+}
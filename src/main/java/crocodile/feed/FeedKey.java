@@ -0,0 +1,7 @@
+package crocodile.feed;
+
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.TimeWindow;
+
+public record FeedKey(ConfiguredCalendar calendar, TimeWindow window) {
+}
@@ -0,0 +1,65 @@
+package crocodile.feed;
+
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Writes the same output as ConfiguredCalendar#toICal one event at a time.
+public class ICalWriter {
+    
+    private final ConfiguredCalendar calendar;
+    private final Writer writer;
+    @Nullable private final VEventWriter eventWriter;
+
+    public ICalWriter(ConfiguredCalendar calendar, RenderConfig config, OutputStream out) {
+        this(calendar, config, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+    
+    private ICalWriter(ConfiguredCalendar calendar, RenderConfig config, Writer writer) {
+        this.calendar = calendar;
+        this.writer = writer;
+        this.eventWriter = config.engine() == RenderConfig.Engine.NATIVE ? new VEventWriter(config.fold()) : null;
+    }
+    
+    public static String render(ConfiguredCalendar calendar, RenderConfig config, List<Event> events) {
+        StringWriter out = new StringWriter();
+        ICalWriter writer = new ICalWriter(calendar, config, out);
+        try {
+            writer.start();
+            for (Event event : events) {
+                writer.write(event);
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+    
+    public void start() throws IOException {
+        this.writer.write(this.calendar.iCalPrefix());
+    }
+    
+    public void write(Event event) throws IOException {
+        if (this.eventWriter != null) {
+            this.eventWriter.write(event, this.calendar.timezone(), this.writer);
+        } else {
+            this.writer.write(event.toICal(this.calendar.timezone()).toString());
+        }
+    }
+    
+    public void finish() throws IOException {
+        this.writer.write(this.calendar.iCalSuffix());
+        this.writer.flush();
+    }
+}
@@ -0,0 +1,8 @@
+package crocodile.feed;
+
+public record RenderConfig(Engine engine, boolean fold) {
+    
+    public enum Engine {
+        ICAL4J, NATIVE
+    }
+}
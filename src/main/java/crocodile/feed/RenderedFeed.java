@@ -0,0 +1,35 @@
+package crocodile.feed;
+
+import crocodile.model.CalendarVersion;
+
+import javax.annotation.Nullable;
+
+public final class RenderedFeed {
+    
+    private final CalendarVersion version;
+    private final byte[] data;
+    @Nullable private final byte[] gzip;
+
+    public RenderedFeed(CalendarVersion version, byte[] data, @Nullable byte[] gzip) {
+        this.version = version;
+        this.data = data;
+        this.gzip = gzip;
+    }
+
+    public CalendarVersion version() {
+        return this.version;
+    }
+
+    public byte[] data() {
+        return this.data;
+    }
+
+    @Nullable
+    public byte[] gzip() {
+        return this.gzip;
+    }
+    
+    public long size() {
+        return this.data.length + (this.gzip == null ? 0 : this.gzip.length);
+    }
+}
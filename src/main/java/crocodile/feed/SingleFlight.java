@@ -0,0 +1,85 @@
+package crocodile.feed;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Deduplicates concurrent work for the same key. The first caller of join becomes the leader and must complete
+// the flight, every other caller that joins while it is running waits for the leader's result.
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight> flights;
+
+    public SingleFlight() {
+        this.flights = new ConcurrentHashMap<>();
+    }
+
+    public Flight join(K key) {
+        Flight flight = new Flight(key);
+        @Nullable Flight running = this.flights.putIfAbsent(key, flight);
+        return running != null ? running.follower() : flight;
+    }
+
+    public int running() {
+        return this.flights.size();
+    }
+
+    public final class Flight {
+
+        private final K key;
+        private final CompletableFuture<V> result;
+        private final boolean leader;
+
+        private Flight(K key) {
+            this(key, new CompletableFuture<>(), true);
+        }
+
+        private Flight(K key, CompletableFuture<V> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        private Flight follower() {
+            return new Flight(this.key, this.result, false);
+        }
+
+        public boolean leader() {
+            return this.leader;
+        }
+
+        // Only the first completion counts, so this can also be called from a finally block. A null result tells
+        // the followers to do the work themselves.
+        public void complete(@Nullable V value) {
+            if (!this.leader) throw new IllegalStateException("Only the leader can complete a flight");
+            SingleFlight.this.flights.remove(this.key, this);
+            this.result.complete(value);
+        }
+
+        public void fail(Throwable failure) {
+            if (!this.leader) throw new IllegalStateException("Only the leader can complete a flight");
+            SingleFlight.this.flights.remove(this.key, this);
+            this.result.completeExceptionally(failure);
+        }
+
+        // Returns null if the leader did not finish in time or left the work to the followers.
+        // Failures of the leader are thrown as ExecutionException.
+        @Nullable
+        public V await(Duration timeout) throws ExecutionException {
+            if (this.leader) throw new IllegalStateException("The leader can't wait for itself");
+            try {
+                return this.result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package crocodile.feed;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Keeps the output in memory as long as it does not exceed the limit. Once it does, the kept output and everything
+// written afterwards goes to the stream opened by the callback.
+public class SpillingOutputStream extends OutputStream {
+
+    private final long limit;
+    private final Spill spill;
+    @Nullable private ByteArrayOutputStream kept;
+    @Nullable private OutputStream spilled;
+    private long written;
+
+    public SpillingOutputStream(long limit, Spill spill) {
+        this.limit = limit;
+        this.spill = spill;
+        this.kept = new ByteArrayOutputStream();
+        this.spilled = null;
+        this.written = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.written += len;
+        if (this.spilled != null) {
+            this.spilled.write(b, off, len);
+            return;
+        }
+        if (this.kept == null) throw new IOException("Stream closed");
+        if (this.kept.size() + len <= this.limit) {
+            this.kept.write(b, off, len);
+            return;
+        }
+        OutputStream out = this.spill.open();
+        this.kept.writeTo(out);
+        this.kept = null;
+        this.spilled = out;
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.spilled != null) this.spilled.flush();
+    }
+
+    public long written() {
+        return this.written;
+    }
+
+    // Returns null once the output was spilled
+    @Nullable
+    public byte[] kept() {
+        return this.kept == null ? null : this.kept.toByteArray();
+    }
+
+    @Nullable
+    public OutputStream spilled() {
+        return this.spilled;
+    }
+
+    @FunctionalInterface
+    public interface Spill {
+
+        OutputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,6 @@
+package crocodile.feed;
+
+import java.time.Duration;
+
+public record StreamConfig(Duration heartbeat, int maxChanges) {
+}
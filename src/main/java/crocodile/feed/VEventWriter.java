@@ -0,0 +1,153 @@
+package crocodile.feed;
+
+import crocodile.model.Event;
+import net.fortuna.ical4j.model.TimeZone;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+// Writes the same VEVENT text as Event#toICal without building an ical4j object graph. Instances reuse their
+// line buffer and must not be shared between threads.
+public final class VEventWriter {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("uuuuMMdd", Locale.ROOT);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmss", Locale.ROOT);
+    private static final int FOLD_LENGTH = 75;
+
+    private final boolean fold;
+    private final StringBuilder line;
+
+    public VEventWriter(boolean fold) {
+        this.fold = fold;
+        this.line = new StringBuilder(256);
+    }
+
+    public void write(Event event, TimeZone tz, Appendable out) throws IOException {
+        out.append("BEGIN:VEVENT\r\n");
+        this.text("UID", event.uid().toString(), out);
+        this.text("SUMMARY", event.title(), out);
+        if (event.description() != null) this.text("DESCRIPTION", event.description(), out);
+        if (event.location() != null) this.text("LOCATION", event.location(), out);
+        if (event.url() != null && isUri(event.url())) {
+            this.line.setLength(0);
+            this.line.append("URL:").append(event.url());
+            this.flush(out);
+        }
+        this.line.setLength(0);
+        this.line.append("DTSTAMP:");
+        DATE_TIME.formatTo(LocalDateTime.ofInstant(event.modified(), ZoneOffset.UTC), this.line);
+        this.line.append('Z');
+        this.flush(out);
+        if (event.times() instanceof Event.Timed timed) {
+            this.dateTime("DTSTART", timed.start(), tz, out);
+            this.dateTime("DTEND", timed.end(), tz, out);
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            this.line.setLength(0);
+            this.line.append("DTSTART;VALUE=DATE:");
+            DATE.formatTo(allDay.start(), this.line);
+            this.flush(out);
+            this.line.setLength(0);
+            this.line.append("DTEND;VALUE=DATE:");
+            DATE.formatTo(allDay.end().plusDays(1), this.line);
+            this.flush(out);
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+        out.append("END:VEVENT\r\n");
+    }
+
+    private void text(String name, String value, Appendable out) throws IOException {
+        this.line.setLength(0);
+        this.line.append(name).append(':');
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            switch (chr) {
+                // Same characters as ical4j's Strings.escape, which also escapes double quotes
+                case '\\', ';', ',', '"' -> this.line.append('\\').append(chr);
+                case '\r' -> {
+                    if (i + 1 < value.length() && value.charAt(i + 1) == '\n') {
+                        this.line.append("\\n");
+                        i += 1;
+                    } else {
+                        this.line.append(chr);
+                    }
+                }
+                case '\n' -> this.line.append("\\n");
+                default -> this.line.append(chr);
+            }
+        }
+        this.flush(out);
+    }
+
+    private void dateTime(String name, Instant instant, TimeZone tz, Appendable out) throws IOException {
+        // ical4j formats with the offsets of the iCal timezone, not the ones known to java.time
+        long millis = instant.toEpochMilli();
+        long localSeconds = Math.floorDiv(millis + tz.getOffset(millis), 1000);
+        this.line.setLength(0);
+        this.line.append(name).append(";TZID=");
+        String tzId = tz.getID();
+        if (needsQuotes(tzId)) {
+            this.line.append('"').append(tzId).append('"');
+        } else {
+            this.line.append(tzId);
+        }
+        this.line.append(':');
+        DATE_TIME.formatTo(LocalDateTime.ofEpochSecond(localSeconds, 0, ZoneOffset.UTC), this.line);
+        this.flush(out);
+    }
+
+    private void flush(Appendable out) throws IOException {
+        if (!this.fold) {
+            out.append(this.line).append("\r\n");
+            return;
+        }
+        // Content lines are folded after 75 octets without splitting multibyte characters
+        int octets = 0;
+        int start = 0;
+        for (int i = 0; i < this.line.length(); i++) {
+            char chr = this.line.charAt(i);
+            int size;
+            if (chr < 0x80) {
+                size = 1;
+            } else if (chr < 0x800) {
+                size = 2;
+            } else if (Character.isHighSurrogate(chr) && i + 1 < this.line.length() && Character.isLowSurrogate(this.line.charAt(i + 1))) {
+                size = 4;
+            } else if (Character.isLowSurrogate(chr) && i > 0 && Character.isHighSurrogate(this.line.charAt(i - 1))) {
+                size = 0;
+            } else {
+                size = 3;
+            }
+            if (octets + size > FOLD_LENGTH) {
+                out.append(this.line, start, i).append("\r\n ");
+                start = i;
+                octets = 1;
+            }
+            octets += size;
+        }
+        out.append(this.line, start, this.line.length()).append("\r\n");
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            if (chr == ':' || chr == ';' || chr == ',' || chr >= 0x80) return true;
+        }
+        return false;
+    }
+
+    private static boolean isUri(String url) {
+        try {
+            new URI(url);
+            return true;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+}
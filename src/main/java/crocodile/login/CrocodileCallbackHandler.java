@@ -15,6 +15,21 @@ public class CrocodileCallbackHandler implements CallbackHandler {
         this.token = token;
     }
 
+    @Nullable
+    public String user() {
+        return this.user;
+    }
+
+    @Nullable
+    public String password() {
+        return this.password;
+    }
+
+    @Nullable
+    public String token() {
+        return this.token;
+    }
+
     @Override
     public void handle(Callback[] callbacks) throws UnsupportedCallbackException {
         for (Callback callback : callbacks) {
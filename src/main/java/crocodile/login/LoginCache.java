@@ -0,0 +1,129 @@
+package crocodile.login;
+
+import crocodile.metrics.Metrics;
+import crocodile.model.ConfiguredCalendar;
+
+import javax.annotation.Nullable;
+import javax.security.auth.login.Configuration;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// Remembers login decisions for a short time, so feed polls don't run the JAAS login modules every time.
+// Credentials are only kept as salted hash.
+public class LoginCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final byte[] salt;
+    private final ReentrantLock lock;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long generation;
+
+    public LoginCache(LoginCacheConfig config) {
+        this.maxSize = config.maxSize();
+        this.ttlNanos = config.ttl().toNanos();
+        this.salt = new byte[16];
+        new SecureRandom().nextBytes(this.salt);
+        this.lock = new ReentrantLock();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.generation = 0;
+    }
+
+    public boolean login(ConfiguredCalendar calendar, ConfiguredCalendar.Action action, CrocodileCallbackHandler handler) {
+        return this.login(calendar.loginModel(action), action, handler, () -> calendar.login(action, handler));
+    }
+
+    // For endpoints that don't belong to a calendar
+    public boolean login(String loginModel, CrocodileCallbackHandler handler) {
+        return this.login(loginModel, null, handler, () -> ConfiguredCalendar.login(loginModel, handler));
+    }
+
+    private boolean login(String loginModel, @Nullable ConfiguredCalendar.Action action, CrocodileCallbackHandler handler, BooleanSupplier login) {
+        Metrics.LoginMetrics metrics = Metrics.login(loginModel);
+        if (this.maxSize <= 0 || this.ttlNanos <= 0 || "never".equalsIgnoreCase(loginModel) || "open".equalsIgnoreCase(loginModel)) {
+            boolean success = login.getAsBoolean();
+            metrics.record(success);
+            return success;
+        }
+        Key key = new Key(loginModel, action, this.hash(handler));
+        long generation;
+        this.lock.lock();
+        try {
+            Entry entry = this.entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created() <= this.ttlNanos) {
+                metrics.record(entry.success());
+                return entry.success();
+            }
+            if (entry != null) this.entries.remove(key);
+            generation = this.generation;
+        } finally {
+            this.lock.unlock();
+        }
+        boolean success = login.getAsBoolean();
+        metrics.record(success);
+        this.lock.lock();
+        try {
+            // Decisions made with an outdated login configuration are not cached
+            if (this.generation == generation) {
+                this.entries.put(key, new Entry(success, System.nanoTime()));
+                if (this.entries.size() > this.maxSize) {
+                    this.entries.pollFirstEntry();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return success;
+    }
+
+    // Reloads the JAAS login configuration and forgets all decisions made with the old one
+    public void refresh() {
+        Configuration.getConfiguration().refresh();
+        this.flush();
+    }
+
+    public void flush() {
+        this.lock.lock();
+        try {
+            this.generation += 1;
+            this.entries.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private String hash(CrocodileCallbackHandler handler) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        digest.update(this.salt);
+        update(digest, handler.user());
+        update(digest, handler.password());
+        update(digest, handler.token());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, @Nullable String value) {
+        // Length prefixes keep different splits of the same characters apart, -1 marks a missing value
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(4).putInt(-1).array());
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+    }
+
+    private record Key(String loginModel, @Nullable ConfiguredCalendar.Action action, String credentials) {}
+    private record Entry(boolean success, long created) {}
+}
@@ -0,0 +1,6 @@
+package crocodile.login;
+
+import java.time.Duration;
+
+public record LoginCacheConfig(int maxSize, Duration ttl) {
+}
@@ -0,0 +1,44 @@
+package crocodile.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts values into fixed buckets. Recording only touches LongAdders and never allocates.
+public final class Histogram {
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+
+    public Histogram(long[] bounds) {
+        this.bounds = bounds;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+    }
+
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < this.bounds.length && value > this.bounds[bucket]) bucket += 1;
+        this.buckets[bucket].increment();
+        this.sum.add(value);
+    }
+
+    void write(Appendable out, String name, String labels, double scale) throws IOException {
+        long count = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            count += this.buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",").append("le=\"");
+            out.append(i < this.bounds.length ? Metrics.format(this.bounds[i] / scale) : "+Inf").append("\"} ");
+            out.append(Long.toString(count)).append('\n');
+        }
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(Metrics.format(this.sum.sum() / scale)).append('\n');
+        out.append(name).append("_count");
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(Long.toString(count)).append('\n');
+    }
+}
@@ -0,0 +1,194 @@
+package crocodile.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Process wide metrics in the Prometheus text format. Metrics are looked up once and kept by the code that
+// records them, so recording is lock free and does not allocate.
+public class Metrics {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long[] LATENCY_BOUNDS = {
+            us(100), us(250), us(500), ms(1), us(2500), ms(5), ms(10), ms(25), ms(50), ms(100), ms(250), ms(500),
+            ms(1000), ms(2500), ms(5000), ms(10000)
+    };
+    private static final long[] SIZE_BOUNDS = {
+            1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20, 4 << 20, 16 << 20, 64 << 20
+    };
+    private static final long[] ROW_BOUNDS = {
+            0, 1, 10, 100, 1000, 10000, 100000, 1000000
+    };
+    private static final long[] BATCH_BOUNDS = {
+            1, 2, 4, 8, 16, 32, 64, 128, 256
+    };
+
+    private static final ConcurrentMap<String, RouteMetrics> ROUTES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> CALENDARS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, DatabaseMetrics> DATABASE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LoginMetrics> LOGINS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Histogram POOL_WAIT = new Histogram(LATENCY_BOUNDS);
+    private static final Histogram FEED_SIZE = new Histogram(SIZE_BOUNDS);
+    private static final Histogram COMMIT_BATCH = new Histogram(BATCH_BOUNDS);
+    private static final LongAdder COALESCED = new LongAdder();
+
+    public static RouteMetrics route(String route) {
+        return ROUTES.computeIfAbsent(route, k -> new RouteMetrics());
+    }
+
+    public static Histogram calendar(String calendar) {
+        return CALENDARS.computeIfAbsent(calendar, k -> new Histogram(LATENCY_BOUNDS));
+    }
+
+    public static DatabaseMetrics database(String method) {
+        return DATABASE.computeIfAbsent(method, k -> new DatabaseMetrics());
+    }
+
+    public static LoginMetrics login(String loginModel) {
+        return LOGINS.computeIfAbsent(loginModel, k -> new LoginMetrics());
+    }
+
+    public static Histogram poolWait() {
+        return POOL_WAIT;
+    }
+
+    public static Histogram feedSize() {
+        return FEED_SIZE;
+    }
+
+    public static Histogram commitBatch() {
+        return COMMIT_BATCH;
+    }
+
+    // Requests answered with the result of an identical request that was running at the same time
+    public static LongAdder coalesced() {
+        return COALESCED;
+    }
+
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    public static void write(Appendable out) throws IOException {
+        out.append("# TYPE crocodile_http_request_seconds histogram\n");
+        for (Map.Entry<String, RouteMetrics> entry : new TreeMap<>(ROUTES).entrySet()) {
+            AtomicReferenceArray<Histogram> statuses = entry.getValue().statuses;
+            for (int i = 0; i < statuses.length(); i++) {
+                Histogram histogram = statuses.get(i);
+                if (histogram != null) {
+                    histogram.write(out, "crocodile_http_request_seconds", "route=\"" + escape(entry.getKey()) + "\",status=\"" + (i + RouteMetrics.MIN_STATUS) + "\"", NANOS_PER_SECOND);
+                }
+            }
+        }
+        out.append("# TYPE crocodile_calendar_request_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(CALENDARS).entrySet()) {
+            entry.getValue().write(out, "crocodile_calendar_request_seconds", "calendar=\"" + escape(entry.getKey()) + "\"", NANOS_PER_SECOND);
+        }
+        out.append("# TYPE crocodile_db_seconds histogram\n");
+        for (Map.Entry<String, DatabaseMetrics> entry : new TreeMap<>(DATABASE).entrySet()) {
+            entry.getValue().time.write(out, "crocodile_db_seconds", "method=\"" + escape(entry.getKey()) + "\"", NANOS_PER_SECOND);
+        }
+        out.append("# TYPE crocodile_db_rows histogram\n");
+        for (Map.Entry<String, DatabaseMetrics> entry : new TreeMap<>(DATABASE).entrySet()) {
+            entry.getValue().rows.write(out, "crocodile_db_rows", "method=\"" + escape(entry.getKey()) + "\"", 1);
+        }
+        out.append("# TYPE crocodile_pool_wait_seconds histogram\n");
+        POOL_WAIT.write(out, "crocodile_pool_wait_seconds", "", NANOS_PER_SECOND);
+        out.append("# TYPE crocodile_feed_bytes histogram\n");
+        FEED_SIZE.write(out, "crocodile_feed_bytes", "", 1);
+        out.append("# TYPE crocodile_db_commit_batch_size histogram\n");
+        COMMIT_BATCH.write(out, "crocodile_db_commit_batch_size", "", 1);
+        out.append("# TYPE crocodile_coalesced_requests_total counter\n");
+        out.append("crocodile_coalesced_requests_total ").append(Long.toString(COALESCED.sum())).append('\n');
+        out.append("# TYPE crocodile_logins_total counter\n");
+        for (Map.Entry<String, LoginMetrics> entry : new TreeMap<>(LOGINS).entrySet()) {
+            String model = escape(entry.getKey());
+            out.append("crocodile_logins_total{model=\"").append(model).append("\",result=\"success\"} ").append(Long.toString(entry.getValue().success.sum())).append('\n');
+            out.append("crocodile_logins_total{model=\"").append(model).append("\",result=\"failure\"} ").append(Long.toString(entry.getValue().failure.sum())).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(GAUGES).entrySet()) {
+            out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+            out.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue().getAsLong())).append('\n');
+        }
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static long us(long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public static final class RouteMetrics {
+
+        private static final int MIN_STATUS = 100;
+        private static final int MAX_STATUS = 599;
+
+        private final AtomicReferenceArray<Histogram> statuses;
+
+        private RouteMetrics() {
+            this.statuses = new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1);
+        }
+
+        public void record(int status, long nanos) {
+            int idx = Math.clamp(status, MIN_STATUS, MAX_STATUS) - MIN_STATUS;
+            Histogram histogram = this.statuses.get(idx);
+            if (histogram == null) {
+                this.statuses.compareAndSet(idx, null, new Histogram(LATENCY_BOUNDS));
+                histogram = this.statuses.get(idx);
+            }
+            histogram.record(nanos);
+        }
+    }
+
+    public static final class DatabaseMetrics {
+
+        private final Histogram time;
+        private final Histogram rows;
+
+        private DatabaseMetrics() {
+            this.time = new Histogram(LATENCY_BOUNDS);
+            this.rows = new Histogram(ROW_BOUNDS);
+        }
+
+        public void record(long nanos) {
+            this.time.record(nanos);
+        }
+
+        public void rows(long rows) {
+            this.rows.record(rows);
+        }
+    }
+
+    public static final class LoginMetrics {
+
+        private final LongAdder success;
+        private final LongAdder failure;
+
+        private LoginMetrics() {
+            this.success = new LongAdder();
+            this.failure = new LongAdder();
+        }
+
+        public void record(boolean success) {
+            (success ? this.success : this.failure).increment();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package crocodile.model;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+// The versions are the sync versions of the stored calendars in the order of getStoredCalendars. Every write
+// increases them, so unlike the modification times they don't depend on the clocks of the instances.
+public record CalendarVersion(List<Long> versions, @Nullable Instant modified, @Nullable Instant deleted) {
+    
+    public String etag(ConfiguredCalendar calendar, TimeWindow window) {
+        return this.etag(Objects.hash(calendar.timezone().getID(), window));
+    }
+
+    // For other representations of the calendar, like pages of the JSON feed
+    public String etag(ConfiguredCalendar calendar, TimeWindow window, Object variant) {
+        return this.etag(Objects.hash(calendar.timezone().getID(), window, variant));
+    }
+
+    private String etag(int definition) {
+        String versions = this.versions().stream().map(Long::toHexString).collect(Collectors.joining("."));
+        return "W/\"" + versions + "-" + Integer.toHexString(definition) + "\"";
+    }
+    
+    @Nullable
+    public Instant lastModified() {
+        if (this.modified() == null) return this.deleted();
+        if (this.deleted() == null) return this.modified();
+        return this.modified().isAfter(this.deleted()) ? this.modified() : this.deleted();
+    }
+}
@@ -0,0 +1,7 @@
+package crocodile.model;
+
+import java.util.List;
+import java.util.UUID;
+
+public record Changes(SyncToken token, List<Event> events, List<UUID> deleted) {
+}
@@ -4,10 +4,14 @@ import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
 
+import javax.annotation.Nullable;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Objects;
 
@@ -16,12 +20,24 @@ public sealed abstract class ConfiguredCalendar permits StoredCalendar, VirtualC
     private final TimeZone timezone;
     private final String loginModelRead;
     private final String loginModelWrite;
+    private final String loginModelExport;
+    @Nullable private final Period past;
+    @Nullable private final Period future;
+    private final String iCalPrefix;
+    private final String iCalSuffix;
 
-    public ConfiguredCalendar(String tz, String loginModelRead, String loginModelWrite) throws DateTimeException {
+    public ConfiguredCalendar(String tz, String loginModelRead, String loginModelWrite, String loginModelExport, @Nullable Period past, @Nullable Period future) throws DateTimeException {
         this.timezone = TimeZoneRegistryFactory.getInstance().createRegistry().getTimeZone(tz);
         if (this.timezone == null) throw new DateTimeException("timezone not available for iCal use: " + tz);
         this.loginModelRead = loginModelRead;
         this.loginModelWrite = loginModelWrite;
+        this.loginModelExport = loginModelExport;
+        this.past = past;
+        this.future = future;
+        String emptyCalendar = this.toICal(List.of()).toString();
+        int suffixStart = emptyCalendar.lastIndexOf("END:VCALENDAR");
+        this.iCalPrefix = emptyCalendar.substring(0, suffixStart);
+        this.iCalSuffix = emptyCalendar.substring(suffixStart);
     }
     
     public TimeZone timezone() {
@@ -30,10 +46,52 @@ public sealed abstract class ConfiguredCalendar permits StoredCalendar, VirtualC
     
     public abstract List<String> getStoredCalendars();
 
+    // Explicitly requested bounds take precedence over the configured default window
+    public TimeWindow window(@Nullable LocalDate from, @Nullable LocalDate to) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        if (from == null) from = this.past == null ? LocalDate.MIN : today.minus(this.past);
+        if (to == null) to = this.future == null ? LocalDate.MAX : today.plus(this.future);
+        return new TimeWindow(from, to);
+    }
+
+    // Everything that toICal produces before the first event
+    public String iCalPrefix() {
+        return this.iCalPrefix;
+    }
+
+    // Everything that toICal produces after the last event
+    public String iCalSuffix() {
+        return this.iCalSuffix;
+    }
+
+    public String loginModel(Action action) {
+        return switch (Objects.requireNonNull(action)) {
+            case READ -> this.loginModelRead;
+            case WRITE -> this.loginModelWrite;
+            case EXPORT -> this.loginModelExport;
+        };
+    }
+
+    // Whether both calendars are configured the same way, so anything cached for one can be served for the other
+    public boolean sameDefinition(ConfiguredCalendar other) {
+        return this.getClass() == other.getClass()
+                && this.timezone.getID().equals(other.timezone.getID())
+                && this.loginModelRead.equals(other.loginModelRead)
+                && this.loginModelWrite.equals(other.loginModelWrite)
+                && this.loginModelExport.equals(other.loginModelExport)
+                && Objects.equals(this.past, other.past)
+                && Objects.equals(this.future, other.future)
+                && this.getStoredCalendars().equals(other.getStoredCalendars());
+    }
+
     public boolean login(Action action, CallbackHandler handler) {
+        return login(this.loginModel(action), handler);
+    }
+
+    // Also used for endpoints that don't belong to a calendar, like metrics
+    public static boolean login(String loginModel, CallbackHandler handler) {
         try {
-            String loginModel = Objects.requireNonNull(action) == Action.WRITE ? this.loginModelWrite : this.loginModelRead;
-            if ("never".equalsIgnoreCase(loginModel)) throw new LoginException("calendar does not allow login");
+            if ("never".equalsIgnoreCase(loginModel)) throw new LoginException("login not allowed");
             if ("open".equalsIgnoreCase(loginModel)) return true;
             LoginContext context = new LoginContext(loginModel, handler);
             context.login();
@@ -53,6 +111,6 @@ public sealed abstract class ConfiguredCalendar permits StoredCalendar, VirtualC
     }
 
     public enum Action {
-        READ, WRITE
+        READ, WRITE, EXPORT
     }
 }
@@ -0,0 +1,256 @@
+package crocodile.model;
+
+import crocodile.db.EventSink;
+import net.fortuna.ical4j.data.CalendarParserImpl;
+import net.fortuna.ical4j.data.ContentHandler;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.data.UnfoldingReader;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+// Reads the VEVENTs of an iCal stream one by one without building the whole calendar in memory.
+// Only the properties Crocodile knows about are read, recurrence rules are ignored.
+public class EventICal {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("uuuuMMdd", Locale.ROOT);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmss", Locale.ROOT);
+
+    public static void read(Reader reader, ZoneId defaultZone, EventSink sink) throws IOException, ParseException {
+        Handler handler = new Handler(defaultZone, sink);
+        try {
+            new CalendarParserImpl().parse(new UnfoldingReader(reader, true), handler);
+        } catch (ParserException | RuntimeException e) {
+            // The parser may wrap exceptions thrown by the handler
+            Throwable cause = e instanceof ParserException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof UncheckedIOException io) throw io.getCause();
+            if (cause instanceof InvalidEvent invalid) throw (ParseException) invalid.getCause();
+            if (cause instanceof RuntimeException && !(e instanceof ParserException)) throw (RuntimeException) cause;
+            ParseException ex = new ParseException("invalid iCal data", e instanceof ParserException parserException ? parserException.getLineNo() : 0);
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private static Event createEvent(Map<String, Property> properties, ZoneId defaultZone) throws ParseException {
+        try {
+            @Nullable Property dtStart = properties.get("DTSTART");
+            if (dtStart == null) throw new ParseException("event without start", 0);
+            UUID uid = properties.containsKey("UID") ? parseUid(properties.get("UID").value()) : UUID.randomUUID();
+            String title = properties.containsKey("SUMMARY") ? unescape(properties.get("SUMMARY").value()) : "";
+            @Nullable String description = properties.containsKey("DESCRIPTION") ? unescape(properties.get("DESCRIPTION").value()) : null;
+            @Nullable String location = properties.containsKey("LOCATION") ? unescape(properties.get("LOCATION").value()) : null;
+            @Nullable String url = properties.containsKey("URL") ? properties.get("URL").value() : null;
+            if (url != null) new URI(url);
+            Instant modified = Instant.now();
+            if (properties.containsKey("LAST-MODIFIED")) {
+                modified = parseDateTime(properties.get("LAST-MODIFIED"), defaultZone);
+            } else if (properties.containsKey("DTSTAMP")) {
+                modified = parseDateTime(properties.get("DTSTAMP"), defaultZone);
+            }
+            @Nullable Property dtEnd = properties.get("DTEND");
+            @Nullable Property duration = properties.get("DURATION");
+            Event.Times times;
+            if (isDate(dtStart)) {
+                LocalDate start = LocalDate.parse(dtStart.value(), DATE);
+                LocalDate end;
+                if (dtEnd != null) {
+                    end = LocalDate.parse(dtEnd.value().substring(0, 8), DATE).minusDays(1);
+                } else if (duration != null) {
+                    end = start.plusDays(Math.max(1, parseDuration(duration.value()).toDays()) - 1);
+                } else {
+                    end = start;
+                }
+                times = new Event.AllDay(start, end.isBefore(start) ? start : end);
+            } else {
+                Instant start = parseDateTime(dtStart, defaultZone);
+                Instant end;
+                if (dtEnd != null) {
+                    end = parseDateTime(dtEnd, defaultZone);
+                } else if (duration != null) {
+                    end = start.plus(parseDuration(duration.value()));
+                } else {
+                    end = start;
+                }
+                times = new Event.Timed(start, end);
+            }
+            return new Event(uid, title, modified, description, location, url, times);
+        } catch (DateTimeException | URISyntaxException | IndexOutOfBoundsException | ArithmeticException | NumberFormatException e) {
+            ParseException ex = new ParseException("invalid event", 0);
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private static UUID parseUid(String value) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            // Crocodile only uses UUIDs as event uids
+            return UUID.randomUUID();
+        }
+    }
+
+    private static boolean isDate(Property property) {
+        return "DATE".equalsIgnoreCase(property.parameters().get("VALUE")) || property.value().length() == 8;
+    }
+
+    private static Instant parseDateTime(Property property, ZoneId defaultZone) {
+        String value = property.value();
+        if (value.endsWith("Z") || value.endsWith("z")) {
+            return LocalDateTime.parse(value.substring(0, value.length() - 1), DATE_TIME).toInstant(ZoneOffset.UTC);
+        }
+        ZoneId zone = defaultZone;
+        @Nullable String tzId = property.parameters().get("TZID");
+        if (tzId != null) {
+            try {
+                zone = ZoneId.of(tzId.startsWith("/") ? tzId.substring(1) : tzId);
+            } catch (DateTimeException e) {
+                // Timezones that are only defined inside the file fall back to the calendar timezone
+            }
+        }
+        return LocalDateTime.parse(value, DATE_TIME).atZone(zone).toInstant();
+    }
+
+    private static Duration parseDuration(String value) {
+        // java.time.Duration does not know about weeks
+        String duration = value.strip().toUpperCase(Locale.ROOT);
+        boolean negative = duration.startsWith("-");
+        if (duration.startsWith("-") || duration.startsWith("+")) duration = duration.substring(1);
+        Duration result;
+        if (duration.endsWith("W")) {
+            result = Duration.ofDays(7 * Long.parseLong(duration.substring(1, duration.length() - 1)));
+        } else {
+            result = Duration.parse(duration);
+        }
+        return negative ? result.negated() : result;
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            if (chr == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                sb.append(chr);
+            }
+        }
+        return sb.toString();
+    }
+
+    private record Property(String value, Map<String, String> parameters) {}
+
+    // Used to pass checked exceptions through the ical4j parser
+    private static class InvalidEvent extends RuntimeException {
+
+        public InvalidEvent(ParseException cause) {
+            super(cause);
+        }
+    }
+
+    private static class Handler implements ContentHandler {
+
+        private final ZoneId defaultZone;
+        private final EventSink sink;
+        private final Map<String, Property> properties;
+        private int depth;
+        private int eventDepth;
+        @Nullable private String propertyName;
+        @Nullable private String propertyValue;
+        private final Map<String, String> parameters;
+
+        private Handler(ZoneId defaultZone, EventSink sink) {
+            this.defaultZone = defaultZone;
+            this.sink = sink;
+            this.properties = new HashMap<>();
+            this.depth = 0;
+            this.eventDepth = -1;
+            this.propertyName = null;
+            this.propertyValue = null;
+            this.parameters = new HashMap<>();
+        }
+
+        @Override
+        public void startCalendar() {
+            //
+        }
+
+        @Override
+        public void endCalendar() {
+            //
+        }
+
+        @Override
+        public void startComponent(String name) {
+            this.depth += 1;
+            if (this.eventDepth < 0 && "VEVENT".equalsIgnoreCase(name)) {
+                this.eventDepth = this.depth;
+                this.properties.clear();
+            }
+        }
+
+        @Override
+        public void endComponent(String name) {
+            if (this.depth == this.eventDepth) {
+                this.eventDepth = -1;
+                try {
+                    this.sink.accept(createEvent(this.properties, this.defaultZone));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ParseException e) {
+                    throw new InvalidEvent(e);
+                }
+                this.properties.clear();
+            }
+            this.depth -= 1;
+        }
+
+        @Override
+        public void startProperty(String name) {
+            this.propertyName = name.toUpperCase(Locale.ROOT);
+            this.propertyValue = null;
+            this.parameters.clear();
+        }
+
+        @Override
+        public void propertyValue(String value) {
+            this.propertyValue = value;
+        }
+
+        @Override
+        public void parameter(String name, String value) {
+            String unquoted = value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+            this.parameters.put(name.toUpperCase(Locale.ROOT), unquoted);
+        }
+
+        @Override
+        public void endProperty(String name) {
+            // Properties of nested components such as alarms are ignored
+            if (this.eventDepth >= 0 && this.depth == this.eventDepth && this.propertyName != null && this.propertyValue != null) {
+                this.properties.put(this.propertyName, new Property(this.propertyValue, Map.copyOf(this.parameters)));
+            }
+            this.propertyName = null;
+            this.propertyValue = null;
+        }
+    }
+}
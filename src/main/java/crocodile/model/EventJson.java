@@ -2,14 +2,23 @@ package crocodile.model;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public class EventJson {
@@ -22,47 +31,186 @@ public class EventJson {
         GSON = builder.create();
     }
     
-    public static Event fromJson(UUID uid, String json) throws ParseException {
-        JsonElement jsonElement;
+    // Reads either a single event or an array of events straight from the reader without building a tree first.
+    // Fails as soon as there are more than maxEvents events or a value is longer than maxFieldLength characters.
+    // An empty array is invalid.
+    public static List<Event> read(UUID uid, Reader in, int maxEvents, int maxFieldLength) throws IOException, ParseException {
+        JsonReader reader = jsonReader(in);
         try {
-            jsonElement = GSON.fromJson(json, JsonElement.class);
-        } catch (Exception e) {
-            ParseException ex = new ParseException("invalid json", 0);
-            ex.initCause(e);
-            throw ex;
+            List<Event> events;
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                events = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (events.size() >= maxEvents) throw new PayloadTooLargeException("Too many events");
+                    events.add(readEvent(uid, reader, maxFieldLength));
+                }
+                reader.endArray();
+                // Nothing to write, but it would still count as a change of the calendar
+                if (events.isEmpty()) throw new ParseException("no events", 0);
+            } else {
+                events = List.of(readEvent(uid, reader, maxFieldLength));
+            }
+            endDocument(reader);
+            return events;
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            throw invalidJson(e);
+        }
+    }
+    
+    // Reads a single event, see read
+    public static Event readSingle(UUID uid, Reader in, int maxFieldLength) throws IOException, ParseException {
+        JsonReader reader = jsonReader(in);
+        try {
+            Event event = readEvent(uid, reader, maxFieldLength);
+            endDocument(reader);
+            return event;
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            throw invalidJson(e);
         }
-        return fromJson(uid, jsonElement);
     }
     
-    public static Event fromJson(UUID uid, JsonElement jsonElement) throws ParseException {
+    // Lenient like Gson.fromJson, so the same input is accepted as before
+    private static JsonReader jsonReader(Reader in) {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        return reader;
+    }
+    
+    private static void endDocument(JsonReader reader) throws IOException, ParseException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) throw new ParseException("trailing data", 0);
+    }
+    
+    private static ParseException invalidJson(Exception e) {
+        ParseException ex = new ParseException("invalid json", 0);
+        ex.initCause(e);
+        return ex;
+    }
+    
+    private static Event readEvent(UUID uid, JsonReader reader, int maxFieldLength) throws IOException, ParseException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) throw new ParseException("invalid event", 0);
+        @Nullable String title = null;
+        @Nullable String modified = null;
+        @Nullable String description = null;
+        @Nullable String location = null;
+        @Nullable String url = null;
+        @Nullable String start = null;
+        @Nullable String end = null;
+        @Nullable String startDay = null;
+        @Nullable String endDay = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "title" -> title = readString(reader, maxFieldLength);
+                case "modified" -> modified = readString(reader, maxFieldLength);
+                case "description" -> description = readString(reader, maxFieldLength);
+                case "location" -> location = readString(reader, maxFieldLength);
+                case "url" -> url = readString(reader, maxFieldLength);
+                case "start" -> start = readString(reader, maxFieldLength);
+                case "end" -> end = readString(reader, maxFieldLength);
+                case "startDay" -> startDay = readString(reader, maxFieldLength);
+                case "endDay" -> endDay = readString(reader, maxFieldLength);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
         try {
-            JsonObject json = jsonElement.getAsJsonObject();
-            String title = json.get("title").getAsString();
-            Instant modified = json.has("modified") ? Instant.parse(json.get("modified").getAsString()) : Instant.now();
-            String description = json.has("description") ? json.get("description").getAsString() : null;
-            String location = json.has("location") ? json.get("location").getAsString() : null;
-            String url = json.has("url") ? json.get("url").getAsString() : null;
+            if (title == null) throw new ParseException("invalid event", 0);
             Event.Times times;
-            if (json.has("start") && json.has("end") && json.has("startDay") && json.has("endDay")) {
+            if (start != null && end != null && startDay != null && endDay != null) {
                 throw new ParseException("ambiguous event", 0);
-            } else if (json.has("start") && json.has("end")) {
-                times = new Event.Timed(
-                        Instant.parse(json.get("start").getAsString()),
-                        Instant.parse(json.get("end").getAsString())
-                );
-            } else if (json.has("startDay") && json.has("endDay")) {
-                times = new Event.AllDay(
-                        LocalDate.parse(json.get("startDay").getAsString()),
-                        LocalDate.parse(json.get("endDay").getAsString())
-                );
+            } else if (start != null && end != null) {
+                times = new Event.Timed(Instant.parse(start), Instant.parse(end));
+            } else if (startDay != null && endDay != null) {
+                times = new Event.AllDay(LocalDate.parse(startDay), LocalDate.parse(endDay));
             } else {
                 throw new ParseException("invalid event", 0);
             }
-            return new Event(uid, title, modified, description, location, url, times);
-        } catch (ClassCastException | NullPointerException | NoSuchElementException | DateTimeParseException e) {
+            return new Event(uid, title, modified != null ? Instant.parse(modified) : Instant.now(), description, location, url, times);
+        } catch (DateTimeParseException e) {
             ParseException ex = new ParseException("invalid event", 0);
             ex.initCause(e);
             throw ex;
         }
     }
+    
+    // Null values count as missing
+    @Nullable
+    private static String readString(JsonReader reader, int maxFieldLength) throws IOException, ParseException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        String value = reader.nextString();
+        if (value.length() > maxFieldLength) throw new ParseException("field too long", 0);
+        return value;
+    }
+    
+    // Produces the same keys that read accepts, together with the uid of the event
+    public static JsonObject toJson(Event event) {
+        JsonObject json = new JsonObject();
+        json.addProperty("uid", event.uid().toString());
+        json.addProperty("title", event.title());
+        json.addProperty("modified", event.modified().toString());
+        if (event.description() != null) json.addProperty("description", event.description());
+        if (event.location() != null) json.addProperty("location", event.location());
+        if (event.url() != null) json.addProperty("url", event.url());
+        if (event.times() instanceof Event.Timed timed) {
+            json.addProperty("start", timed.start().toString());
+            json.addProperty("end", timed.end().toString());
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            json.addProperty("startDay", allDay.start().toString());
+            json.addProperty("endDay", allDay.end().toString());
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+        return json;
+    }
+    
+    // Writes the same layout as toJson without building the tree first
+    public static void write(JsonWriter writer, Event event) throws IOException {
+        writer.beginObject();
+        writer.name("uid").value(event.uid().toString());
+        writer.name("title").value(event.title());
+        writer.name("modified").value(event.modified().toString());
+        if (event.description() != null) writer.name("description").value(event.description());
+        if (event.location() != null) writer.name("location").value(event.location());
+        if (event.url() != null) writer.name("url").value(event.url());
+        if (event.times() instanceof Event.Timed timed) {
+            writer.name("start").value(timed.start().toString());
+            writer.name("end").value(timed.end().toString());
+        } else if (event.times() instanceof Event.AllDay allDay) {
+            writer.name("startDay").value(allDay.start().toString());
+            writer.name("endDay").value(allDay.end().toString());
+        } else {
+            throw new IncompatibleClassChangeError();
+        }
+        writer.endObject();
+    }
+    
+    public static String toJson(Changes changes) {
+        JsonObject json = new JsonObject();
+        json.addProperty("token", changes.token().toString());
+        JsonArray events = new JsonArray(changes.events().size());
+        for (Event event : changes.events()) {
+            events.add(toJson(event));
+        }
+        json.add("events", events);
+        JsonArray deleted = new JsonArray(changes.deleted().size());
+        for (UUID uid : changes.deleted()) {
+            deleted.add(uid.toString());
+        }
+        json.add("deleted", deleted);
+        return GSON.toJson(json);
+    }
+    
+    // A short notice that an event was added, modified or deleted
+    public static String toChangeJson(@Nullable Event event, UUID uid) {
+        JsonObject json = new JsonObject();
+        json.addProperty("uid", uid.toString());
+        json.addProperty("kind", event == null ? "deleted" : "changed");
+        if (event != null) json.addProperty("modified", event.modified().toString());
+        return GSON.toJson(json);
+    }
 }
@@ -0,0 +1,6 @@
+package crocodile.model;
+
+import java.time.Duration;
+
+public record ImportConfig(int maxConcurrent, long maxSize, Duration timeout) {
+}
@@ -0,0 +1,4 @@
+package crocodile.model;
+
+public record LimitsConfig(int batchSize, int pageSize, long maxBodySize, int maxFieldLength) {
+}
@@ -0,0 +1,11 @@
+package crocodile.model;
+
+import java.io.IOException;
+
+// Thrown as soon as a request body exceeds one of the configured limits, answered with 413 Payload Too Large
+public class PayloadTooLargeException extends IOException {
+
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
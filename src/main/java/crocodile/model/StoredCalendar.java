@@ -1,6 +1,8 @@
 package crocodile.model;
 
+import javax.annotation.Nullable;
 import java.time.DateTimeException;
+import java.time.Period;
 import java.util.List;
 
 public final class StoredCalendar extends ConfiguredCalendar {
@@ -8,8 +10,8 @@ public final class StoredCalendar extends ConfiguredCalendar {
     private final String id;
     private final List<String> storedCalendars;
     
-    public StoredCalendar(String id, String tz, String loginModelRead, String loginModelWrite) throws DateTimeException {
-        super(tz, loginModelRead, loginModelWrite);
+    public StoredCalendar(String id, String tz, String loginModelRead, String loginModelWrite, String loginModelExport, @Nullable Period past, @Nullable Period future) throws DateTimeException {
+        super(tz, loginModelRead, loginModelWrite, loginModelExport, past, future);
         this.id = id;
         this.storedCalendars = List.of(id);
     }
@@ -0,0 +1,35 @@
+package crocodile.model;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// The sync versions of all stored calendars of a calendar in the order of ConfiguredCalendar#getStoredCalendars
+public record SyncToken(List<Long> versions) {
+
+    public SyncToken {
+        versions = List.copyOf(versions);
+    }
+
+    public static SyncToken parse(String token) throws ParseException {
+        List<Long> versions = new ArrayList<>();
+        for (String part : token.split("\\.", -1)) {
+            try {
+                long version = Long.parseLong(part);
+                if (version < 0) throw new ParseException("invalid sync token", 0);
+                versions.add(version);
+            } catch (NumberFormatException e) {
+                ParseException ex = new ParseException("invalid sync token", 0);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+        return new SyncToken(versions);
+    }
+
+    @Override
+    public String toString() {
+        return this.versions.stream().map(Object::toString).collect(Collectors.joining("."));
+    }
+}
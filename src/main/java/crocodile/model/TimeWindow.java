@@ -0,0 +1,9 @@
+package crocodile.model;
+
+import java.time.LocalDate;
+
+// Both bounds are inclusive. LocalDate.MIN and LocalDate.MAX are used for unbounded windows.
+public record TimeWindow(LocalDate from, LocalDate to) {
+    
+    public static final TimeWindow ALL = new TimeWindow(LocalDate.MIN, LocalDate.MAX);
+}
@@ -1,15 +1,17 @@
 package crocodile.model;
 
+import javax.annotation.Nullable;
 import javax.security.auth.callback.CallbackHandler;
 import java.time.DateTimeException;
+import java.time.Period;
 import java.util.List;
 
 public final class VirtualCalendar extends ConfiguredCalendar {
     
     private final List<String> storedCalendars;
     
-    public VirtualCalendar(List<String> calendars, String tz, String loginModelRead) throws DateTimeException {
-        super(tz, loginModelRead, "never");
+    public VirtualCalendar(List<String> calendars, String tz, String loginModelRead, String loginModelExport, @Nullable Period past, @Nullable Period future) throws DateTimeException {
+        super(tz, loginModelRead, "never", loginModelExport, past, future);
         this.storedCalendars = List.copyOf(calendars);
     }
 
@@ -1,7 +1,8 @@
 package crocodile.route;
 
-import crocodile.Config;
+import crocodile.LiveConfig;
 import crocodile.db.Database;
+import crocodile.login.LoginCache;
 import crocodile.model.ConfiguredCalendar;
 import crocodile.model.Event;
 import crocodile.model.EventJson;
@@ -14,6 +15,7 @@ import spark.Service;
 import javax.annotation.Nullable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.List;
@@ -21,20 +23,22 @@ import java.util.UUID;
 
 public class AlterEventRoute extends CalendarRoute {
     
-    public AlterEventRoute(Service spark, Config config, Database database) {
-        super(spark, ConfiguredCalendar.Action.WRITE, config, database);
+    public AlterEventRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.WRITE, config, database, logins);
     }
 
     @Override
     protected String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
         if (calendar instanceof StoredCalendar stored) {
             if (uid == null) throw new ParseException("no event to alter", 0);
-            if (request.body() == null || request.body().isEmpty()) throw this.spark.halt(400, "No content");
-            Event event = EventJson.fromJson(uid, request.body());
+            Event event;
+            try (Reader body = this.body(request)) {
+                event = EventJson.readSingle(uid, body, this.config.get().limits().maxFieldLength());
+            }
             if (this.database.query(stored, uid) == null) throw new FileNotFoundException();
             Event alteredEvent = this.database.update(stored, event);
             response.header("Content-Type", "text/calendar; charset=utf-8");
-            return calendar.toICal(List.of(alteredEvent)).toString();
+            return this.toICal(calendar, List.of(alteredEvent));
         } else {
             throw new ParseException("virtual calendar", 0);
         }
@@ -0,0 +1,37 @@
+package crocodile.route;
+
+import crocodile.LiveConfig;
+import crocodile.db.Database;
+import crocodile.login.LoginCache;
+import crocodile.model.Changes;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.EventJson;
+import crocodile.model.SyncToken;
+import crocodile.route.base.CalendarRoute;
+import spark.Request;
+import spark.Response;
+import spark.Service;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.UUID;
+
+public class ChangesRoute extends CalendarRoute {
+
+    public ChangesRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.READ, config, database, logins);
+    }
+
+    @Override
+    protected Object handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
+        @Nullable String sinceParam = request.queryParams("since");
+        @Nullable SyncToken since = sinceParam == null ? null : SyncToken.parse(sinceParam);
+        @Nullable Changes changes = this.database.changes(calendar, since);
+        // The client has to fetch the whole calendar again
+        if (changes == null) throw this.spark.halt(410, "Gone");
+        response.header("Content-Type", "application/json; charset=utf-8");
+        return EventJson.toJson(changes);
+    }
+}
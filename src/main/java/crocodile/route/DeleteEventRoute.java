@@ -1,7 +1,8 @@
 package crocodile.route;
 
-import crocodile.Config;
+import crocodile.LiveConfig;
 import crocodile.db.Database;
+import crocodile.login.LoginCache;
 import crocodile.model.ConfiguredCalendar;
 import crocodile.model.Event;
 import crocodile.model.StoredCalendar;
@@ -20,8 +21,8 @@ import java.util.UUID;
 
 public class DeleteEventRoute extends CalendarRoute {
 
-    public DeleteEventRoute(Service spark, Config config, Database database) {
-        super(spark, ConfiguredCalendar.Action.WRITE, config, database);
+    public DeleteEventRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.WRITE, config, database, logins);
     }
 
     @Override
@@ -38,7 +39,7 @@ public class DeleteEventRoute extends CalendarRoute {
                 this.database.clear(stored);
             }
             response.header("Content-Type", "text/calendar; charset=utf-8");
-            return calendar.toICal(events).toString();
+            return this.toICal(calendar, events);
         } else {
             throw new ParseException("virtual calendar", 0);
         }
@@ -0,0 +1,106 @@
+package crocodile.route;
+
+import crocodile.LiveConfig;
+import crocodile.db.Database;
+import crocodile.feed.ChangeSubscriptions;
+import crocodile.login.LoginCache;
+import crocodile.model.Changes;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.EventJson;
+import crocodile.model.SyncToken;
+import crocodile.route.base.CalendarRoute;
+import spark.Request;
+import spark.Response;
+import spark.Service;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.UUID;
+
+// Pushes changes to a calendar as server-sent events. The sync token of the last change is used as event id,
+// so clients resume through Last-Event-ID after reconnecting.
+public class EventStreamRoute extends CalendarRoute {
+
+    private final ChangeSubscriptions subscriptions;
+
+    public EventStreamRoute(Service spark, LiveConfig config, Database database, LoginCache logins, ChangeSubscriptions subscriptions) {
+        super(spark, ConfiguredCalendar.Action.READ, config, database, logins);
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    protected Object handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
+        @Nullable String lastEventId = request.headers("Last-Event-ID");
+        if (lastEventId == null) lastEventId = request.queryParams("since");
+        @Nullable SyncToken token = lastEventId == null || lastEventId.isEmpty() ? null : SyncToken.parse(lastEventId);
+        response.header("Content-Type", "text/event-stream; charset=utf-8");
+        response.header("Cache-Control", "no-cache");
+        response.header("X-Accel-Buffering", "no");
+        
+        // The request is served on its own virtual thread which waits for changes until the client disconnects
+        OutputStream out = response.raw().getOutputStream();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // Subscribe before the current state is read, so no change in between is missed
+        try (ChangeSubscriptions.Subscription subscription = this.subscriptions.subscribe(calendar)) {
+            boolean changed;
+            if (token == null) {
+                token = this.database.syncToken(calendar);
+                message(writer, token, "sync", "{}");
+                changed = false;
+            } else {
+                changed = true;
+            }
+            while (true) {
+                if (changed) {
+                    token = this.send(writer, calendar, token);
+                } else {
+                    writer.write(":\n\n");
+                }
+                writer.flush();
+                out.flush();
+                changed = subscription.await(this.config.get().stream().heartbeat());
+            }
+        } catch (IOException e) {
+            // The client disconnected
+            return "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+    }
+    
+    private SyncToken send(Writer writer, ConfiguredCalendar calendar, SyncToken since) throws IOException, SQLException {
+        @Nullable Changes changes = this.database.changes(calendar, since);
+        // Clients that are too far behind reload the calendar instead of receiving every change
+        if (changes == null || changes.events().size() + changes.deleted().size() > this.config.get().stream().maxChanges()) {
+            SyncToken current = changes == null ? this.database.syncToken(calendar) : changes.token();
+            message(writer, current, "reset", "{}");
+            return current;
+        }
+        int remaining = changes.events().size() + changes.deleted().size();
+        for (Event event : changes.events()) {
+            remaining -= 1;
+            message(writer, remaining == 0 ? changes.token() : null, "change", EventJson.toChangeJson(event, event.uid()));
+        }
+        for (UUID deleted : changes.deleted()) {
+            remaining -= 1;
+            message(writer, remaining == 0 ? changes.token() : null, "change", EventJson.toChangeJson(null, deleted));
+        }
+        return changes.token();
+    }
+    
+    // Only the last message of a batch carries the id, so a client that disconnects in between receives the whole batch again
+    private static void message(Writer writer, @Nullable SyncToken id, String event, String data) throws IOException {
+        if (id != null) writer.append("id: ").append(id.toString()).append('\n');
+        writer.append("event: ").append(event).append('\n');
+        writer.append("data: ").append(data).append("\n\n");
+    }
+}
@@ -0,0 +1,49 @@
+package crocodile.route;
+
+import crocodile.LiveConfig;
+import crocodile.db.Database;
+import crocodile.feed.ICalWriter;
+import crocodile.login.LoginCache;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.route.base.CalendarRoute;
+import spark.Request;
+import spark.Response;
+import spark.Service;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Locale;
+import java.util.UUID;
+
+public class ExportRoute extends CalendarRoute {
+
+    public ExportRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.EXPORT, config, database, logins);
+    }
+
+    @Override
+    protected Object handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
+        @Nullable String format = request.queryParams("format");
+        // The export is written to the raw response as it is read from the database
+        OutputStream out = response.raw().getOutputStream();
+        switch (format == null ? "ndjson" : format.toLowerCase(Locale.ROOT)) {
+            case "ndjson" -> {
+                response.header("Content-Type", "application/x-ndjson; charset=utf-8");
+                this.database.exportJson(calendar, out);
+            }
+            case "ics" -> {
+                response.header("Content-Type", "text/calendar; charset=utf-8");
+                ICalWriter writer = new ICalWriter(calendar, this.config.get().render(), out);
+                writer.start();
+                this.database.exportEvents(calendar, writer::write);
+                writer.finish();
+            }
+            default -> throw new ParseException("invalid export format: " + format, 0);
+        }
+        out.flush();
+        return "";
+    }
+}
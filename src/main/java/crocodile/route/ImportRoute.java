@@ -0,0 +1,116 @@
+package crocodile.route;
+
+import crocodile.LiveConfig;
+import crocodile.db.Database;
+import crocodile.login.LoginCache;
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.EventICal;
+import crocodile.model.ImportConfig;
+import crocodile.model.StoredCalendar;
+import crocodile.route.base.CalendarRoute;
+import org.eclipse.jetty.io.EndPoint;
+import spark.Request;
+import spark.Response;
+import spark.Service;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+public class ImportRoute extends CalendarRoute {
+
+    private final ImportConfig imports;
+    private final Semaphore running;
+    private final ExecutorService executor;
+
+    public ImportRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.WRITE, config, database, logins);
+        this.imports = config.get().imports();
+        this.running = new Semaphore(this.imports.maxConcurrent());
+        // ical4j reads through synchronized readers. A virtual thread that waits there for more of the upload blocks
+        // its carrier thread and with it other requests, so imports run on platform threads while the request waits.
+        this.executor = Executors.newFixedThreadPool(this.imports.maxConcurrent(), Thread.ofPlatform().name("import-", 0).daemon().factory());
+    }
+
+    @Override
+    protected String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
+        if (calendar instanceof StoredCalendar stored) {
+            @Nullable String contentType = request.contentType();
+            if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("text/calendar")) throw this.spark.halt(415, "Unsupported Media Type");
+            ZoneId defaultZone = calendar.timezone().toZoneId();
+            InputStream body = input(request, this.imports.maxSize());
+            // Every import holds a database connection until the upload is complete
+            if (!this.running.tryAcquire()) throw this.spark.halt(503, "Too many imports");
+            long imported;
+            @Nullable EndPoint endPoint = endPoint(request);
+            long idleTimeout = endPoint != null ? endPoint.getIdleTimeout() : 0;
+            try {
+                // Jetty's idle timeout also applies to blocking reads, so a stalled upload fails instead of holding
+                // the connection
+                if (endPoint != null) endPoint.setIdleTimeout(this.imports.timeout().toMillis());
+                imported = this.run(() -> {
+                    // Read the body as a stream, so large files are never held in memory
+                    try (Reader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                        return this.database.importEvents(stored, sink -> EventICal.read(reader, defaultZone, sink));
+                    }
+                });
+            } catch (SQLException e) {
+                if ("23505".equals(e.getSQLState())) throw this.spark.halt(409, "Conflict");
+                throw e;
+            } catch (IOException e) {
+                if (e.getCause() instanceof TimeoutException) throw this.spark.halt(408, "Request Timeout");
+                throw e;
+            } finally {
+                if (endPoint != null) endPoint.setIdleTimeout(idleTimeout);
+                this.running.release();
+            }
+            response.header("Content-Type", "text/plain; charset=utf-8");
+            response.header("X-EventCount", Long.toString(imported));
+            return "Imported " + imported + " events.";
+        } else {
+            throw new ParseException("virtual calendar", 0);
+        }
+    }
+
+    private long run(Callable<Long> task) throws IOException, SQLException, ParseException {
+        Future<Long> future = this.executor.submit(task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing", e);
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case IOException ex -> throw ex;
+                case SQLException ex -> throw ex;
+                case ParseException ex -> throw ex;
+                case RuntimeException ex -> throw ex;
+                case Error ex -> throw ex;
+                default -> throw new IOException("Import failed", e.getCause());
+            }
+        }
+    }
+
+    @Nullable
+    private static EndPoint endPoint(Request request) {
+        @Nullable org.eclipse.jetty.server.Request base = org.eclipse.jetty.server.Request.getBaseRequest(request.raw());
+        return base != null ? base.getHttpChannel().getEndPoint() : null;
+    }
+}
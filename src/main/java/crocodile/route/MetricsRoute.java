@@ -0,0 +1,34 @@
+package crocodile.route;
+
+import crocodile.LiveConfig;
+import crocodile.login.LoginCache;
+import crocodile.metrics.Metrics;
+import crocodile.route.base.CalendarRoute;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+public class MetricsRoute implements Route {
+
+    private final LiveConfig config;
+    private final LoginCache logins;
+
+    public MetricsRoute(LiveConfig config, LoginCache logins) {
+        this.config = config;
+        this.logins = logins;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        // Metrics name every calendar, including those that can't be read
+        if (!this.logins.login(this.config.get().metricsLogin(), CalendarRoute.getLoginData(request.headers("Authorization"), request.queryParams("pw")))) {
+            response.status(401);
+            response.header("WWW-Authenticate", "Basic realm=login");
+            return "Unauthorized";
+        }
+        StringBuilder sb = new StringBuilder();
+        Metrics.write(sb);
+        response.header("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        return sb.toString();
+    }
+}
@@ -1,10 +1,12 @@
 package crocodile.route;
 
-import crocodile.Config;
+import crocodile.LiveConfig;
 import crocodile.db.Database;
+import crocodile.login.LoginCache;
 import crocodile.model.ConfiguredCalendar;
 import crocodile.model.Event;
 import crocodile.model.EventJson;
+import crocodile.model.LimitsConfig;
 import crocodile.model.StoredCalendar;
 import crocodile.route.base.CalendarRoute;
 import spark.Request;
@@ -12,28 +14,34 @@ import spark.Response;
 import spark.Service;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 public class NewEventRoute extends CalendarRoute {
     
     private static final UUID NULL_UUID = new UUID(0, 0);
 
-    public NewEventRoute(Service spark, Config config, Database database) {
-        super(spark, ConfiguredCalendar.Action.WRITE, config, database);
+    public NewEventRoute(Service spark, LiveConfig config, Database database, LoginCache logins) {
+        super(spark, ConfiguredCalendar.Action.WRITE, config, database, logins);
     }
 
     @Override
-    protected String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws SQLException, ParseException {
+    protected String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
         if (calendar instanceof StoredCalendar stored) {
-            if (request.body() == null || request.body().isEmpty()) throw this.spark.halt(400, "No content");
-            Event event = EventJson.fromJson(NULL_UUID, request.body());
-            Event addedEvent = this.database.insert(stored, event);
+            LimitsConfig limits = this.config.get().limits();
+            List<Event> events;
+            try (Reader body = this.body(request)) {
+                events = EventJson.read(NULL_UUID, body, limits.batchSize(), limits.maxFieldLength());
+            }
+            List<Event> addedEvents = events.size() == 1 ? List.of(this.database.insert(stored, events.get(0))) : this.database.insert(stored, events);
             response.header("Content-Type", "text/calendar; charset=utf-8");
-            response.header("X-EventID", addedEvent.uid().toString());
-            return calendar.toICal(List.of(addedEvent)).toString();
+            response.header("X-EventID", addedEvents.stream().map(event -> event.uid().toString()).collect(Collectors.joining(",")));
+            return this.toICal(calendar, addedEvents);
         } else {
             throw new ParseException("virtual calendar", 0);
         }
@@ -1,38 +1,416 @@
 package crocodile.route;
 
-import crocodile.Config;
+import com.google.gson.stream.JsonWriter;
+import crocodile.LiveConfig;
 import crocodile.db.Database;
+import crocodile.db.EventSink;
+import crocodile.feed.CapturingOutputStream;
+import crocodile.feed.CompressingOutputStream;
+import crocodile.feed.Compression;
+import crocodile.feed.FeedCache;
+import crocodile.feed.FeedKey;
+import crocodile.feed.ICalWriter;
+import crocodile.feed.RenderedFeed;
+import crocodile.feed.SingleFlight;
+import crocodile.feed.SpillingOutputStream;
+import crocodile.login.LoginCache;
+import crocodile.metrics.Metrics;
+import crocodile.model.CalendarVersion;
 import crocodile.model.ConfiguredCalendar;
 import crocodile.model.Event;
+import crocodile.model.EventJson;
+import crocodile.model.TimeWindow;
 import crocodile.route.base.CalendarRoute;
 import spark.Request;
 import spark.Response;
 import spark.Service;
 
 import javax.annotation.Nullable;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 
 public class WebcalRoute extends CalendarRoute {
 
-    public WebcalRoute(Service spark, Config config, Database database) {
-        super(spark, ConfiguredCalendar.Action.READ, config, database);
+    private final FeedCache cache;
+    private final Compression compression;
+    private final boolean coalesce;
+    private final Duration coalesceTimeout;
+    private final SingleFlight<FeedFlight, SharedFeed> feeds;
+    private final SingleFlight<EventFlight, List<Event>> events;
+
+    public WebcalRoute(Service spark, LiveConfig config, Database database, LoginCache logins, FeedCache cache) {
+        super(spark, ConfiguredCalendar.Action.READ, config, database, logins);
+        this.cache = cache;
+        this.compression = new Compression(config.get().compression());
+        this.coalesce = config.get().cache().coalesce();
+        this.coalesceTimeout = config.get().cache().coalesceTimeout();
+        this.feeds = new SingleFlight<>();
+        this.events = new SingleFlight<>();
     }
 
     @Override
-    protected String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException {
-        List<Event> events;
+    protected Object handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID uid) throws IOException, SQLException, ParseException {
         if (uid != null) {
-            Event event = this.database.query(calendar, uid);
-            if (event == null) throw new FileNotFoundException();
-            events = List.of(event);
-        } else {
-            events = this.database.query(calendar);
+            List<Event> events = this.queryEvent(calendar, uid);
+            if (events.isEmpty()) throw new FileNotFoundException();
+            response.header("Vary", "Accept");
+            if (wantsJson(request.headers("Accept"))) {
+                response.header("Content-Type", "application/json; charset=utf-8");
+                return EventJson.toJson(events.getFirst()).toString();
+            }
+            response.header("Content-Type", "text/calendar; charset=utf-8");
+            return this.toICal(calendar, events);
+        }
+        TimeWindow window = calendar.window(getDate(request, "from"), getDate(request, "to"));
+        response.header("Vary", this.compression.enabled() ? "Accept, Accept-Encoding" : "Accept");
+        if (wantsJson(request.headers("Accept"))) return this.handleJson(request, response, calendar, window);
+        FeedKey key = new FeedKey(calendar, window);
+        @Nullable RenderedFeed feed = this.cache.get(key);
+        long stamp = this.cache.stamp(calendar);
+        boolean gzip = this.compression.accepted(request.headers("Accept-Encoding"));
+        if (feed != null) {
+            if (notModified(request, response, feed.version().etag(calendar, window), feed.version().lastModified())) return "";
+            response.header("Content-Type", "text/calendar; charset=utf-8");
+            return send(feed, gzip, response, response.raw().getOutputStream());
+        }
+
+        // Only feeds that fit into the cache can be shared with concurrent requests
+        if (!this.coalesce || this.cache.maxSize() <= 0) return this.renderAlone(request, response, key, stamp, this.database.version(calendar), gzip);
+        SingleFlight<FeedFlight, SharedFeed>.Flight flight = this.feeds.join(new FeedFlight(key, stamp));
+        if (flight.leader()) return this.lead(flight, request, response, key, stamp, gzip);
+        @Nullable SharedFeed shared;
+        try {
+            shared = flight.await(this.coalesceTimeout);
+        } catch (ExecutionException e) {
+            throw leaderFailure(e);
+        }
+        if (shared == null) return this.renderAlone(request, response, key, stamp, this.database.version(calendar), gzip);
+        // The leader read the version after this request joined the flight, so it is at least as new as the
+        // version this request would have read itself
+        if (notModified(request, response, shared.version().etag(calendar, window), shared.version().lastModified())) {
+            Metrics.coalesced().increment();
+            return "";
+        }
+        if (shared.feed() == null) return this.renderAlone(request, response, key, stamp, shared.version(), gzip);
+        Metrics.coalesced().increment();
+        response.header("Content-Type", "text/calendar; charset=utf-8");
+        return send(shared.feed(), gzip, response, response.raw().getOutputStream());
+    }
+
+    // Renders the feed into memory first, so the followers get it without waiting for the leader's client.
+    // Feeds that don't fit into the cache are streamed to the client and the followers render them themselves.
+    private Object lead(SingleFlight<FeedFlight, SharedFeed>.Flight flight, Request request, Response response, FeedKey key, long stamp, boolean gzip) throws IOException, SQLException {
+        try {
+            CalendarVersion version = this.database.version(key.calendar());
+            // Nothing is rendered for a client that is up to date, the followers only get the version
+            if (notModified(request, response, version.etag(key.calendar(), key.window()), version.lastModified())) {
+                flight.complete(new SharedFeed(version, null));
+                return "";
+            }
+            response.header("Content-Type", "text/calendar; charset=utf-8");
+            OutputStream out = response.raw().getOutputStream();
+            SpillingOutputStream buffer = new SpillingOutputStream(this.cache.maxSize(), () -> {
+                flight.complete(new SharedFeed(version, null));
+                return gzip ? this.compression.stream(out, () -> response.header("Content-Encoding", "gzip")) : out;
+            });
+            ICalWriter writer = new ICalWriter(key.calendar(), this.config.get().render(), buffer);
+            writer.start();
+            this.database.stream(key.calendar(), key.window(), writer::write);
+            writer.finish();
+            Metrics.feedSize().record(buffer.written());
+            @Nullable byte[] data = buffer.kept();
+            if (data == null) {
+                if (buffer.spilled() instanceof CompressingOutputStream compressing) compressing.finish();
+                out.flush();
+                return "";
+            }
+            RenderedFeed feed = new RenderedFeed(version, data, this.compression.compress(data));
+            this.cache.put(key, stamp, feed);
+            flight.complete(new SharedFeed(version, feed));
+            return send(feed, gzip, response, out);
+        } catch (SQLException | RuntimeException e) {
+            flight.fail(e);
+            throw e;
+        } finally {
+            // Failing to write to the own client is no reason to fail the others, they render the feed themselves
+            flight.complete(null);
         }
+    }
+
+    private Object renderAlone(Request request, Response response, FeedKey key, long stamp, CalendarVersion version, boolean gzip) throws IOException, SQLException {
+        if (notModified(request, response, version.etag(key.calendar(), key.window()), version.lastModified())) return "";
         response.header("Content-Type", "text/calendar; charset=utf-8");
-        return calendar.toICal(events).toString();
+        // Spark doesn't write anything to a committed response. This is also required for gzip
+        // as Spark would otherwise compress the response a second time.
+        this.render(key, stamp, version, gzip, response, response.raw().getOutputStream());
+        return "";
+    }
+
+    // A page of events as JSON object, written while the events are read. The uid of the last event is sent as
+    // next if there are more events, it is passed as after to get the next page.
+    private Object handleJson(Request request, Response response, ConfiguredCalendar calendar, TimeWindow window) throws IOException, SQLException, ParseException {
+        int limit = getLimit(request, this.config.get().limits().pageSize());
+        @Nullable UUID after = getUid(request, "after");
+        CalendarVersion version = this.database.version(calendar);
+        if (notModified(request, response, version.etag(calendar, window, List.of("json", limit, String.valueOf(after))), version.lastModified())) return "";
+        response.header("Content-Type", "application/json; charset=utf-8");
+        OutputStream out = response.raw().getOutputStream();
+        OutputStream target = out;
+        if (this.compression.accepted(request.headers("Accept-Encoding"))) {
+            target = this.compression.stream(out, () -> response.header("Content-Encoding", "gzip"));
+        }
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8)));
+        writer.beginObject();
+        writer.name("events").beginArray();
+        // One more event is read to find out whether there is a next page
+        JsonPage page = new JsonPage(writer, limit);
+        this.database.streamPage(calendar, window, after, limit + 1, page);
+        writer.endArray();
+        if (page.more()) writer.name("next").value(page.last().toString());
+        writer.endObject();
+        writer.flush();
+        if (target instanceof CompressingOutputStream compressing) compressing.finish();
+        out.flush();
+        return "";
+    }
+
+    // Returns an empty list if the event does not exist
+    private List<Event> queryEvent(ConfiguredCalendar calendar, UUID uid) throws SQLException {
+        if (!this.coalesce) return listOf(this.database.query(calendar, uid));
+        SingleFlight<EventFlight, List<Event>>.Flight flight = this.events.join(new EventFlight(calendar, uid, this.cache.stamp(calendar)));
+        if (flight.leader()) {
+            try {
+                List<Event> events = listOf(this.database.query(calendar, uid));
+                flight.complete(events);
+                return events;
+            } catch (SQLException | RuntimeException e) {
+                flight.fail(e);
+                throw e;
+            } finally {
+                flight.complete(null);
+            }
+        }
+        @Nullable List<Event> shared;
+        try {
+            shared = flight.await(this.coalesceTimeout);
+        } catch (ExecutionException e) {
+            throw leaderFailure(e);
+        }
+        if (shared == null) return listOf(this.database.query(calendar, uid));
+        Metrics.coalesced().increment();
+        return shared;
+    }
+
+    // Stream the events to the client as they are read. The feed is cached if it is small enough.
+    private void render(FeedKey key, long stamp, CalendarVersion version, boolean gzip, Response response, OutputStream out) throws IOException, SQLException {
+        @Nullable CapturingOutputStream compressedCapture = null;
+        OutputStream target = out;
+        if (gzip) {
+            compressedCapture = new CapturingOutputStream(out, this.cache.maxSize());
+            target = this.compression.stream(compressedCapture, () -> response.header("Content-Encoding", "gzip"));
+        }
+        CapturingOutputStream capture = new CapturingOutputStream(target, this.cache.maxSize());
+        ICalWriter writer = new ICalWriter(key.calendar(), this.config.get().render(), capture);
+        writer.start();
+        this.database.stream(key.calendar(), key.window(), writer::write);
+        writer.finish();
+        boolean compressedStream = false;
+        if (target instanceof CompressingOutputStream compressing) {
+            compressing.finish();
+            compressedStream = compressing.compressed();
+        }
+        out.flush();
+        @Nullable byte[] data = capture.captured();
+        Metrics.feedSize().record(data != null ? data.length : capture.written());
+        if (data == null) return;
+        @Nullable byte[] compressed = compressedCapture == null || !compressedStream ? null : compressedCapture.captured();
+        if (compressed == null || !this.compression.worthwhile(data.length)) compressed = this.compression.compress(data);
+        this.cache.put(key, stamp, new RenderedFeed(version, data, compressed));
+    }
+
+    private static Object send(RenderedFeed feed, boolean gzip, Response response, OutputStream out) throws IOException {
+        if (!gzip || feed.gzip() == null) return feed.data();
+        response.header("Content-Encoding", "gzip");
+        response.raw().setContentLengthLong(feed.gzip().length);
+        out.write(feed.gzip());
+        out.flush();
+        return "";
+    }
+
+    private static List<Event> listOf(@Nullable Event event) {
+        return event == null ? List.of() : List.of(event);
+    }
+
+    private static SQLException leaderFailure(ExecutionException e) {
+        if (e.getCause() instanceof SQLException ex) return new SQLException(ex.getMessage(), ex.getSQLState(), ex);
+        return new SQLException("Coalesced request failed", e.getCause());
+    }
+    
+    @Nullable
+    private static LocalDate getDate(Request request, String param) throws ParseException {
+        @Nullable String value = request.queryParams(param);
+        if (value == null) return null;
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            ParseException ex = new ParseException("invalid date: " + param, 0);
+            ex.initCause(e);
+            throw ex;
+        }
     }
+    
+    private static int getLimit(Request request, int pageSize) throws ParseException {
+        @Nullable String value = request.queryParams("limit");
+        if (value == null) return pageSize;
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            ParseException ex = new ParseException("invalid limit", 0);
+            ex.initCause(e);
+            throw ex;
+        }
+        if (limit < 1) throw new ParseException("invalid limit", 0);
+        return Math.min(limit, pageSize);
+    }
+
+    @Nullable
+    private static UUID getUid(Request request, String param) throws ParseException {
+        @Nullable String value = request.queryParams(param);
+        if (value == null) return null;
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            ParseException ex = new ParseException("invalid uid: " + param, 0);
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    // Uses the type with the higher quality out of JSON and iCal, the one listed first if both are equal.
+    // iCal is used if the client accepts neither.
+    private static boolean wantsJson(@Nullable String accept) {
+        if (accept == null) return false;
+        double json = -1;
+        double ical = -1;
+        boolean jsonFirst = false;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].strip().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].strip();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (type.equals("application/json") && json < 0) {
+                json = quality;
+                jsonFirst = ical < 0;
+            } else if (type.equals("text/calendar") && ical < 0) {
+                ical = quality;
+            }
+        }
+        if (json <= 0) return false;
+        return json > ical || (json == ical && jsonFirst);
+    }
+
+    // Sets the validator headers and answers conditional requests with 304 Not Modified
+    private static boolean notModified(Request request, Response response, String etag, @Nullable Instant lastModified) {
+        response.header("ETag", etag);
+        if (lastModified != null) {
+            response.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atZone(ZoneOffset.UTC)));
+        }
+        @Nullable String ifNoneMatch = request.headers("If-None-Match");
+        @Nullable String ifModifiedSince = request.headers("If-Modified-Since");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch, etag);
+        } else if (ifModifiedSince != null && lastModified != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince.strip(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                notModified = !lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+            } catch (DateTimeParseException e) {
+                notModified = false;
+            }
+        } else {
+            notModified = false;
+        }
+        if (notModified) response.status(304);
+        return notModified;
+    }
+    
+    private static boolean matches(String ifNoneMatch, String etag) {
+        String opaqueTag = weakTag(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.strip();
+            if (candidate.equals("*") || weakTag(candidate).equals(opaqueTag)) return true;
+        }
+        return false;
+    }
+    
+    private static String weakTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static class JsonPage implements EventSink {
+
+        private final JsonWriter writer;
+        private final int limit;
+        private int count;
+        @Nullable private UUID last;
+
+        private JsonPage(JsonWriter writer, int limit) {
+            this.writer = writer;
+            this.limit = limit;
+            this.count = 0;
+            this.last = null;
+        }
+
+        @Override
+        public void accept(Event event) throws IOException {
+            this.count += 1;
+            if (this.count > this.limit) return;
+            EventJson.write(this.writer, event);
+            this.last = event.uid();
+        }
+
+        public boolean more() {
+            return this.count > this.limit && this.last != null;
+        }
+
+        @Nullable
+        public UUID last() {
+            return this.last;
+        }
+    }
+
+    private record FeedFlight(FeedKey feed, long stamp) {}
+
+    // The feed is null if the leader didn't render it or it doesn't fit into the cache
+    private record SharedFeed(CalendarVersion version, @Nullable RenderedFeed feed) {}
+
+    private record EventFlight(ConfiguredCalendar calendar, UUID uid, long stamp) {}
 }
@@ -1,19 +1,30 @@
 package crocodile.route.base;
 
-import crocodile.Config;
+import crocodile.LiveConfig;
 import crocodile.db.Database;
+import crocodile.feed.ICalWriter;
 import crocodile.login.CrocodileCallbackHandler;
+import crocodile.login.LoginCache;
+import crocodile.metrics.Metrics;
 import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.PayloadTooLargeException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
 import spark.*;
 
 import javax.annotation.Nullable;
-import javax.security.auth.callback.CallbackHandler;
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.Base64;
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 
@@ -21,23 +32,46 @@ public abstract class CalendarRoute implements Route {
     
     protected final Service spark;
     protected final ConfiguredCalendar.Action action;
-    protected final Config config;
+    protected final LiveConfig config;
     protected final Database database;
+    protected final LoginCache logins;
+    private final Metrics.RouteMetrics metrics;
 
-    public CalendarRoute(Service spark, ConfiguredCalendar.Action action, Config config, Database database) {
+    public CalendarRoute(Service spark, ConfiguredCalendar.Action action, LiveConfig config, Database database, LoginCache logins) {
         this.spark = spark;
         this.action = action;
         this.config = config;
         this.database = database;
+        this.logins = logins;
+        this.metrics = Metrics.route(this.getClass().getSimpleName());
     }
 
     @Override
     public Object handle(Request request, Response response) {
+        long start = System.nanoTime();
+        int status = 500;
         try {
+            Object result = this.handleRequest(request, response);
+            status = response.status();
+            return result;
+        } catch (HaltException e) {
+            status = e.statusCode();
+            throw e;
+        } finally {
+            long time = System.nanoTime() - start;
+            this.metrics.record(status, time);
+            // Only configured calendars are recorded, so unknown ids can't create new metrics
             @Nullable String calendarId = request.params(":calendar");
-            @Nullable ConfiguredCalendar calendar = this.config.calendar(calendarId);
+            if (calendarId != null && this.config.get().calendar(calendarId) != null) Metrics.calendar(calendarId).record(time);
+        }
+    }
+    
+    private Object handleRequest(Request request, Response response) {
+        try {
+            @Nullable String calendarId = request.params(":calendar");
+            @Nullable ConfiguredCalendar calendar = this.config.get().calendar(calendarId);
             
-            if (calendar != null && calendar.login(this.action, getLoginData(request))) {
+            if (calendar != null && this.logins.login(calendar, this.action, getLoginData(request))) {
                 return this.handle(request, response, calendar, this.getRequestedUid(request));
             } else {
                 response.status(401);
@@ -48,6 +82,8 @@ public abstract class CalendarRoute implements Route {
             throw e;
         } catch (FileNotFoundException e) {
             throw this.spark.halt(404, "Not Found");
+        } catch (PayloadTooLargeException e) {
+            throw this.spark.halt(413, e.getMessage());
         } catch (ParseException e) {
             e.printStackTrace();
             throw this.spark.halt(400, "Bad Request");
@@ -57,12 +93,14 @@ public abstract class CalendarRoute implements Route {
         }
     }
     
-    private CallbackHandler getLoginData(Request request) {
+    private CrocodileCallbackHandler getLoginData(Request request) {
+        return getLoginData(request.headers("Authorization"), request.queryParams("pw"));
+    }
+    
+    public static CrocodileCallbackHandler getLoginData(@Nullable String authHeader, @Nullable String token) {
         @Nullable String user = null;
         @Nullable String password = null;
-        @Nullable String token = request.queryParams("pw");
         
-        @Nullable String authHeader = request.headers("Authorization");
         if (authHeader != null && authHeader.toLowerCase(Locale.ROOT).contains("basic")) {
             String encodedLoginInformation = authHeader.substring(authHeader.toLowerCase(Locale.ROOT).indexOf("basic") + 5).strip();
             String loginInformation = new String(Base64.getDecoder().decode(encodedLoginInformation), StandardCharsets.UTF_8);
@@ -91,5 +129,29 @@ public abstract class CalendarRoute implements Route {
         }
     }
     
-    protected abstract String handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID eventUid) throws IOException, SQLException, ParseException;
+    // Spark's request wrapper reads the whole body into memory unless it is sent chunked. The request it wraps
+    // streams the body as it arrives.
+    protected static InputStream input(Request request) throws IOException {
+        HttpServletRequest raw = request.raw();
+        if (raw instanceof HttpServletRequestWrapper wrapper && wrapper.getRequest() instanceof HttpServletRequest wrapped) raw = wrapped;
+        return raw.getInputStream();
+    }
+
+    // The request body limited to the given size. Requests that announce a larger body are rejected before anything
+    // is read.
+    protected static InputStream input(Request request, long maxSize) throws IOException {
+        if (request.raw().getContentLengthLong() > maxSize) throw new PayloadTooLargeException("Request body too large");
+        return new LimitedInputStream(input(request), maxSize);
+    }
+
+    // The request body limited to the configured maximum size
+    protected Reader body(Request request) throws IOException {
+        return new BufferedReader(new InputStreamReader(input(request, this.config.get().limits().maxBodySize()), StandardCharsets.UTF_8));
+    }
+    
+    protected String toICal(ConfiguredCalendar calendar, List<Event> events) {
+        return ICalWriter.render(calendar, this.config.get().render(), events);
+    }
+    
+    protected abstract Object handle(Request request, Response response, ConfiguredCalendar calendar, @Nullable UUID eventUid) throws IOException, SQLException, ParseException;
 }
@@ -0,0 +1,51 @@
+package crocodile.route.base;
+
+import crocodile.model.PayloadTooLargeException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Fails as soon as more than the limit is read, so oversized bodies are never read completely
+class LimitedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private long read;
+
+    LimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+        this.read = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b >= 0) this.count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = this.in.read(b, off, len);
+        if (n > 0) this.count(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = this.in.skip(n);
+        if (skipped > 0) this.count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) throws PayloadTooLargeException {
+        this.read += n;
+        if (this.read > this.limit) throw new PayloadTooLargeException("Request body too large");
+    }
+}
@@ -0,0 +1,37 @@
+package crocodile.feed;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionTest {
+
+    private static final Compression COMPRESSION = new Compression(new CompressionConfig(true, 6, 1024));
+
+    @Test
+    void acceptsGzip() {
+        assertTrue(COMPRESSION.accepted("gzip"));
+        assertTrue(COMPRESSION.accepted("deflate, GZIP;q=0.5"));
+        assertTrue(COMPRESSION.accepted("*"));
+        assertTrue(COMPRESSION.accepted("br, *;q=0.1"));
+        assertTrue(COMPRESSION.accepted("*;q=0, gzip"));
+    }
+
+    @Test
+    void refusesGzip() {
+        assertFalse(COMPRESSION.accepted(null));
+        assertFalse(COMPRESSION.accepted(""));
+        assertFalse(COMPRESSION.accepted("identity, br"));
+        assertFalse(COMPRESSION.accepted("gzip;q=0"));
+        assertFalse(COMPRESSION.accepted("gzip;q=0, *"));
+        assertFalse(COMPRESSION.accepted("*, gzip;q=0.0"));
+        assertFalse(COMPRESSION.accepted("*;q=0"));
+        assertFalse(COMPRESSION.accepted("gzip;q=invalid"));
+    }
+
+    @Test
+    void refusesWhenDisabled() {
+        assertFalse(new Compression(new CompressionConfig(false, 6, 1024)).accepted("gzip"));
+    }
+}
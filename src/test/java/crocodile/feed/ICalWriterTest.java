@@ -0,0 +1,90 @@
+package crocodile.feed;
+
+import crocodile.model.ConfiguredCalendar;
+import crocodile.model.Event;
+import crocodile.model.StoredCalendar;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Pins the rendered iCal of both engines to checked in files, so a change that affects both engines the same way
+// is noticed as well.
+class ICalWriterTest {
+
+    private static final RenderConfig ICAL4J = new RenderConfig(RenderConfig.Engine.ICAL4J, false);
+    private static final RenderConfig NATIVE = new RenderConfig(RenderConfig.Engine.NATIVE, false);
+    private static final RenderConfig NATIVE_FOLDED = new RenderConfig(RenderConfig.Engine.NATIVE, true);
+
+    private static final List<Event> EVENTS = List.of(
+            new Event(
+                    UUID.fromString("00000000-0000-0000-0000-000000000001"),
+                    "Escapes \\ ; , \" and : done",
+                    Instant.parse("2024-03-05T07:08:09Z"),
+                    "First line\nsecond line\r\nthird; with, \"quotes\" and a back\\slash",
+                    "Room \"4.12\"; Main Building, Floor 4",
+                    "https://example.com/events/1?a=1&b=2,3;4",
+                    new Event.Timed(Instant.parse("2024-07-01T10:00:00Z"), Instant.parse("2024-07-01T11:30:00Z"))
+            ),
+            new Event(
+                    UUID.fromString("00000000-0000-0000-0000-000000000002"),
+                    "All day without optional fields",
+                    Instant.parse("2024-03-05T07:08:09Z"),
+                    null,
+                    null,
+                    null,
+                    new Event.AllDay(LocalDate.of(2024, 2, 29), LocalDate.of(2024, 3, 1))
+            ),
+            new Event(
+                    UUID.fromString("00000000-0000-0000-0000-000000000003"),
+                    "A title that is longer than seventy-five octets, with umlauts äöü and an emoji 🐊 to split",
+                    Instant.parse("2024-01-15T23:00:00Z"),
+                    "Winter time",
+                    null,
+                    null,
+                    new Event.Timed(Instant.parse("2024-01-15T23:45:00Z"), Instant.parse("2024-01-16T00:15:00Z"))
+            )
+    );
+
+    @Test
+    void berlin() throws IOException {
+        assertEngines("berlin.ics", calendar("Europe/Berlin"));
+    }
+
+    @Test
+    void newYork() throws IOException {
+        assertEngines("newyork.ics", calendar("America/New_York"));
+    }
+
+    @Test
+    void folded() throws IOException {
+        // ical4j doesn't fold, only the native engine can
+        assertEquals(expected("berlin-folded.ics"), ICalWriter.render(calendar("Europe/Berlin"), NATIVE_FOLDED, EVENTS));
+    }
+
+    private static void assertEngines(String file, ConfiguredCalendar calendar) throws IOException {
+        String expected = expected(file);
+        assertEquals(expected, calendar.toICal(EVENTS).toString(), "ConfiguredCalendar#toICal");
+        assertEquals(expected, ICalWriter.render(calendar, ICAL4J, EVENTS), "ical4j engine");
+        assertEquals(expected, ICalWriter.render(calendar, NATIVE, EVENTS), "native engine");
+    }
+
+    private static ConfiguredCalendar calendar(String tz) {
+        return new StoredCalendar("test", tz, "open", "open", "open", null, null);
+    }
+
+    private static String expected(String file) throws IOException {
+        try (InputStream in = ICalWriterTest.class.getResourceAsStream(file)) {
+            assertNotNull(in, file);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package crocodile.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EventJsonTest {
+
+    private static final UUID UID = new UUID(0, 0);
+    private static final String EVENT = """
+            {"title": "Conference", "startDay": "2024-03-01", "endDay": "2024-03-03"}""";
+
+    @Test
+    void readsSingleEventAndArray() throws IOException, ParseException {
+        assertEquals(1, read(EVENT).size());
+        assertEquals(2, read("[" + EVENT + ", " + EVENT + "]").size());
+    }
+
+    @Test
+    void rejectsEmptyArray() {
+        assertThrows(ParseException.class, () -> read("[]"));
+        assertThrows(ParseException.class, () -> read(" [ ] "));
+    }
+
+    private static List<Event> read(String json) throws IOException, ParseException {
+        return EventJson.read(UID, new StringReader(json), 10, 1000);
+    }
+}